@@ -0,0 +1,21 @@
+package com.patreon.euphrates.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+// Runs jmh with the usual command line options, always adding the gc profiler so allocation
+// rates are reported next to throughput.
+public class Benchmarks {
+
+  public static void main(String[] args) throws Exception {
+    Options options =
+      new OptionsBuilder()
+        .parent(new CommandLineOptions(args))
+        .addProfiler(GCProfiler.class)
+        .build();
+    new Runner(options).run();
+  }
+}
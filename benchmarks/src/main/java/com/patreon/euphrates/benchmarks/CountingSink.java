@@ -0,0 +1,35 @@
+package com.patreon.euphrates.benchmarks;
+
+import com.patreon.euphrates.Config;
+import com.patreon.euphrates.Row;
+import com.patreon.euphrates.RowSink;
+import org.openjdk.jmh.infra.Blackhole;
+
+// Takes parsed rows without doing anything with them, so only the parser is measured.
+public class CountingSink implements RowSink {
+
+  Blackhole blackhole;
+  long rows = 0;
+
+  public CountingSink(Blackhole blackhole) {
+    this.blackhole = blackhole;
+  }
+
+  @Override
+  public void start(Config.Table table) {
+  }
+
+  @Override
+  public void add(Row row) {
+    blackhole.consume(row);
+    rows++;
+  }
+
+  @Override
+  public void end() {
+  }
+
+  @Override
+  public void flush() {
+  }
+}
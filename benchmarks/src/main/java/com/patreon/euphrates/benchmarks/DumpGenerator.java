@@ -0,0 +1,98 @@
+package com.patreon.euphrates.benchmarks;
+
+import com.patreon.euphrates.Config;
+
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+// Generates mysqldump --xml output for a synthetic table. The same seed always gives the same
+// bytes, so runs are comparable against earlier baselines.
+public class DumpGenerator {
+
+  public static final String TABLE_NAME = "bench";
+
+  private static final String ASCII =
+    "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789 .,-:;_/()'\"<>&";
+  // latin, cjk and a char outside the BMP
+  private static final String[] NON_ASCII = {"é", "ß", "ñ", "ø", "中", "文", "€", "😀"};
+  private static final char[] CONTROL = {0x01, 0x02, 0x07, 0x08, 0x0b, 0x0c, 0x0e, 0x1b, 0x1f};
+
+  int columns;
+  int textLength;
+  double nonAsciiShare;
+  double controlShare;
+  double nullDensity;
+  Random random;
+
+  public DumpGenerator(
+                        int columns,
+                        int textLength,
+                        double nonAsciiShare,
+                        double controlShare,
+                        double nullDensity,
+                        long seed) {
+    this.columns = columns;
+    this.textLength = textLength;
+    this.nonAsciiShare = nonAsciiShare;
+    this.controlShare = controlShare;
+    this.nullDensity = nullDensity;
+    this.random = new Random(seed);
+  }
+
+  public Config.Table table() {
+    Map<String, String> columnTypes = new LinkedHashMap<>();
+    for (int i = 0; i != columns; i++) {
+      columnTypes.put("c" + i, "varchar(65535)");
+    }
+    return new Config.Table(TABLE_NAME, "", columnTypes, null, null, null, null, null);
+  }
+
+  public byte[] generate(int rows) {
+    StringBuilder xml = new StringBuilder();
+    xml.append("<?xml version=\"1.0\"?>\n");
+    xml.append("<mysqldump xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\">\n");
+    xml.append("<database name=\"bench\">\n");
+    xml.append("\t<table_data name=\"").append(TABLE_NAME).append("\">\n");
+    for (int r = 0; r != rows; r++) {
+      xml.append("\t<row>\n");
+      for (int c = 0; c != columns; c++) {
+        xml.append("\t\t<field name=\"c").append(c).append('"');
+        if (random.nextDouble() < nullDensity) {
+          xml.append(" xsi:nil=\"true\" />\n");
+        } else {
+          xml.append('>');
+          appendValue(xml);
+          xml.append("</field>\n");
+        }
+      }
+      xml.append("\t</row>\n");
+    }
+    xml.append("\t</table_data>\n");
+    xml.append("</database>\n");
+    xml.append("</mysqldump>\n");
+    return xml.toString().getBytes(StandardCharsets.UTF_8);
+  }
+
+  private void appendValue(StringBuilder xml) {
+    for (int i = 0; i != textLength; i++) {
+      double pick = random.nextDouble();
+      if (pick < controlShare) {
+        // mysqldump prints control chars raw, it is up to the scrubber to drop them
+        xml.append(CONTROL[random.nextInt(CONTROL.length)]);
+      } else if (pick < controlShare + nonAsciiShare) {
+        xml.append(NON_ASCII[random.nextInt(NON_ASCII.length)]);
+      } else {
+        char c = ASCII.charAt(random.nextInt(ASCII.length()));
+        switch (c) {
+          case '<': xml.append("&lt;"); break;
+          case '>': xml.append("&gt;"); break;
+          case '&': xml.append("&amp;"); break;
+          case '"': xml.append("&quot;"); break;
+          default: xml.append(c);
+        }
+      }
+    }
+  }
+}
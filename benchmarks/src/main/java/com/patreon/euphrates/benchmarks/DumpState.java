@@ -0,0 +1,91 @@
+package com.patreon.euphrates.benchmarks;
+
+import com.patreon.euphrates.Config;
+import com.patreon.euphrates.Row;
+import com.patreon.euphrates.RowSink;
+import com.patreon.euphrates.ScrubbingInputStream;
+import com.patreon.euphrates.StreamParser;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+// A synthetic dump, along with the output of each stage so every stage can be measured on its own.
+@State(Scope.Benchmark)
+public class DumpState {
+
+  private static final long SEED = 42;
+
+  @Param({"8", "32"})
+  public int columns;
+
+  @Param({"16", "256"})
+  public int textLength;
+
+  @Param({"0", "0.1"})
+  public double nonAsciiShare;
+
+  @Param({"0", "0.01"})
+  public double controlShare;
+
+  @Param({"0", "0.3"})
+  public double nullDensity;
+
+  @Param({"json", "delimited"})
+  public String format;
+
+  @Param({"20000"})
+  public int rows;
+
+  public Config.Table table;
+  // what mysqldump would print
+  public byte[] dump;
+  // what comes out of the scrubber, and what the parser reads
+  public byte[] scrubbed;
+  // what the parser hands to the segment writer
+  public List<Row> parsedRows;
+
+  @Setup(Level.Trial)
+  public void generate() throws IOException {
+    DumpGenerator generator =
+      new DumpGenerator(columns, textLength, nonAsciiShare, controlShare, nullDensity, SEED);
+    table = generator.table();
+    dump = generator.generate(rows);
+    scrubbed = drain(new ScrubbingInputStream(new ByteArrayInputStream(dump)));
+
+    parsedRows = new ArrayList<>(rows);
+    new StreamParser(name -> table, new RowSink() {
+      public void start(Config.Table table) {}
+
+      public void add(Row row) {
+        Row copy = new Row(row.size());
+        for (int i = 0; i != row.size(); i++) {
+          copy.set(i, row.get(i));
+        }
+        parsedRows.add(copy);
+      }
+
+      public void end() {}
+
+      public void flush() {}
+    }).parse(new ByteArrayInputStream(scrubbed));
+  }
+
+  public static byte[] drain(InputStream in) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    byte[] buffer = new byte[65_536];
+    int read;
+    while ((read = in.read(buffer)) != -1) {
+      out.write(buffer, 0, read);
+    }
+    return out.toByteArray();
+  }
+}
@@ -0,0 +1,91 @@
+package com.patreon.euphrates.benchmarks;
+
+import com.patreon.euphrates.Config;
+import com.patreon.euphrates.Row;
+import com.patreon.euphrates.RowSink;
+import com.patreon.euphrates.RowWriter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.zip.GZIPOutputStream;
+
+// Encodes rows into compressed segments the way the S3Writer does, but into a local stream that
+// only counts the bytes, so the benchmark measures encoding rather than disk or network.
+public class SegmentSink implements RowSink {
+
+  private static final int SEGMENT_BUFFER_SIZE = 65_536;
+  private static final int MINIMUM_SEGMENT_SIZE = 20_000_000;
+
+  String format;
+  RowWriter rowWriter = null;
+  long segmentStart = 0;
+  long rows = 0;
+  long compressedBytes = 0;
+
+  public SegmentSink(String format) {
+    this.format = format;
+  }
+
+  public long getRows() {
+    return rows;
+  }
+
+  public long getCompressedBytes() {
+    return compressedBytes;
+  }
+
+  @Override
+  public void start(Config.Table table) {
+  }
+
+  @Override
+  public void add(Row row) {
+    try {
+      if (rowWriter == null) rowWriter = newSegment();
+      rowWriter.write(row);
+      rows++;
+      if (compressedBytes - segmentStart > MINIMUM_SEGMENT_SIZE) finishSegment();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  @Override
+  public void end() {
+    try {
+      finishSegment();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  @Override
+  public void flush() {
+  }
+
+  private RowWriter newSegment() throws IOException {
+    OutputStream counting = new OutputStream() {
+      @Override
+      public void write(int b) {
+        compressedBytes++;
+      }
+
+      @Override
+      public void write(byte[] b, int off, int len) {
+        compressedBytes += len;
+      }
+    };
+    // counts compressed bytes as they leave the deflater, like the S3Writer does
+    return RowWriter.forFormat(
+      format,
+      new GZIPOutputStream(counting, SEGMENT_BUFFER_SIZE));
+  }
+
+  private void finishSegment() throws IOException {
+    if (rowWriter == null) return;
+    rowWriter.close();
+    rowWriter = null;
+    segmentStart = compressedBytes;
+  }
+}
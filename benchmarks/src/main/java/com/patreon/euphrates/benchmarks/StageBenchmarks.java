@@ -0,0 +1,69 @@
+package com.patreon.euphrates.benchmarks;
+
+import com.patreon.euphrates.Row;
+import com.patreon.euphrates.ScrubbingInputStream;
+import com.patreon.euphrates.StreamParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+// One operation is one pass over the whole synthetic dump. Rates of megabytes of dump input and
+// of rows come from the Throughput counters, allocation rates from the gc profiler.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx2g"})
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class StageBenchmarks {
+
+  private static final int READ_SIZE = 65_536;
+
+  @Benchmark
+  public void scrub(DumpState state, Throughput throughput, Blackhole blackhole) throws IOException {
+    ScrubbingInputStream in = new ScrubbingInputStream(new ByteArrayInputStream(state.dump));
+    byte[] buffer = new byte[READ_SIZE];
+    int read;
+    while ((read = in.read(buffer)) != -1) {
+      blackhole.consume(read);
+    }
+    throughput.add(state.dump.length, state.rows);
+  }
+
+  @Benchmark
+  public void parse(DumpState state, Throughput throughput, Blackhole blackhole) {
+    CountingSink sink = new CountingSink(blackhole);
+    new StreamParser(name -> state.table, sink).parse(new ByteArrayInputStream(state.scrubbed));
+    throughput.add(state.scrubbed.length, sink.rows);
+  }
+
+  @Benchmark
+  public void encode(DumpState state, Throughput throughput, Blackhole blackhole) {
+    SegmentSink sink = new SegmentSink(state.format);
+    sink.start(state.table);
+    for (Row row : state.parsedRows) {
+      sink.add(row);
+    }
+    sink.end();
+    blackhole.consume(sink.getCompressedBytes());
+    throughput.add(state.scrubbed.length, sink.getRows());
+  }
+
+  // mysqldump output in, compressed segments out
+  @Benchmark
+  public void pipeline(DumpState state, Throughput throughput, Blackhole blackhole) {
+    SegmentSink sink = new SegmentSink(state.format);
+    new StreamParser(name -> state.table, sink)
+      .parse(new ScrubbingInputStream(new ByteArrayInputStream(state.dump)));
+    blackhole.consume(sink.getCompressedBytes());
+    throughput.add(state.dump.length, sink.getRows());
+  }
+}
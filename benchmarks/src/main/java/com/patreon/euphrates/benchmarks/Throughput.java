@@ -0,0 +1,27 @@
+package com.patreon.euphrates.benchmarks;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+// Counters jmh reports as rates next to the score, megabytes of dump input and rows per second.
+@State(Scope.Thread)
+@AuxCounters(AuxCounters.Type.OPERATIONS)
+public class Throughput {
+
+  public double megabytes;
+  public long rows;
+
+  @Setup(Level.Iteration)
+  public void reset() {
+    megabytes = 0;
+    rows = 0;
+  }
+
+  public void add(long bytes, long rowCount) {
+    megabytes += bytes / 1_000_000.0;
+    rows += rowCount;
+  }
+}
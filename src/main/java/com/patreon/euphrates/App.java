@@ -15,10 +15,53 @@ public class App {
       fatal(ioe);
     }
 
+    Metrics.registerMBean();
+    MetricsServer metricsServer = null;
+    if (config.metrics != null) {
+      metricsServer = new MetricsServer(config.metrics);
+      metricsServer.start();
+    }
+    try {
+      run(config, args);
+    } finally {
+      if (metricsServer != null) metricsServer.stop();
+    }
+  }
+
+  private static void run(Config config, String[] args) {
+    // streams changes from the binlog until stopped, instead of copying the tables once
+    if (args.length > 1 && "cdc".equals(args[1])) {
+      BinlogReplicator binlogReplicator = new BinlogReplicator(config);
+      try {
+        binlogReplicator.start();
+      } finally {
+        binlogReplicator.shutdown();
+      }
+      return;
+    }
+
+    // copies tables on their intervals until stopped, keeping the pools between runs
+    if (args.length > 1 && "daemon".equals(args[1])) {
+      Daemon daemon = new Daemon(config);
+      try {
+        daemon.start();
+      } finally {
+        daemon.shutdown();
+      }
+      return;
+    }
+
     Replicator replicator = new Replicator(config);
     try {
-      replicator.start();
+      // picks the last run up where it failed
+      if (args.length > 1 && "resume".equals(args[1])) {
+        replicator.resume();
+      } else {
+        replicator.start();
+      }
       LOG.info("Replication complete!");
+    } catch (Exception e) {
+      fatal(e);
     } finally {
       replicator.shutdown();
     }
@@ -0,0 +1,26 @@
+package com.patreon.euphrates;
+
+// A point in the binlog of the mysql server, as printed by SHOW MASTER STATUS.
+public class BinlogPosition {
+
+  final String filename;
+  final long position;
+
+  public BinlogPosition(String filename, long position) {
+    this.filename = filename;
+    this.position = position;
+  }
+
+  public String getFilename() {
+    return filename;
+  }
+
+  public long getPosition() {
+    return position;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("%s:%s", filename, position);
+  }
+}
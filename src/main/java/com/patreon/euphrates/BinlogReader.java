@@ -0,0 +1,305 @@
+package com.patreon.euphrates;
+
+import com.github.shyiko.mysql.binlog.BinaryLogClient;
+import com.github.shyiko.mysql.binlog.event.DeleteRowsEventData;
+import com.github.shyiko.mysql.binlog.event.Event;
+import com.github.shyiko.mysql.binlog.event.EventHeaderV4;
+import com.github.shyiko.mysql.binlog.event.EventType;
+import com.github.shyiko.mysql.binlog.event.QueryEventData;
+import com.github.shyiko.mysql.binlog.event.RotateEventData;
+import com.github.shyiko.mysql.binlog.event.TableMapEventData;
+import com.github.shyiko.mysql.binlog.event.UpdateRowsEventData;
+import com.github.shyiko.mysql.binlog.event.WriteRowsEventData;
+import com.github.shyiko.mysql.binlog.event.deserialization.EventDeserializer;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.LogManager;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Tails the row based binlog of the mysql server, collecting the changes of the configured tables
+// into batches. A batch only ever holds whole transactions, and is handed over along with the
+// position right after its last one, once it is old or big enough. Batches are applied one at a
+// time on a thread of their own while reading goes on into the next, so mysql doesn't drop a
+// connection that stopped reading. Only a batch that is full while the one before it is still
+// being applied makes reading wait.
+public class BinlogReader {
+
+  private static final Logger LOG = LogManager.getLogger(BinlogReader.class);
+
+  public interface BatchHandler {
+    // called on the applying thread, one batch at a time and in binlog order
+    void apply(ChangeBatch batch, BinlogPosition position);
+  }
+
+  // what a binlog row needs to become a Row of a configured table
+  static class TableColumns {
+    int sourceCount;
+    SourceColumn[] columns;
+    SourceColumn key;
+  }
+
+  static class Change {
+    Config.Table table;
+    String key;
+    Row row;
+
+    Change(Config.Table table, String key, Row row) {
+      this.table = table;
+      this.key = key;
+      this.row = row;
+    }
+  }
+
+  Config config;
+  Mysql mysql;
+  BatchHandler handler;
+  Map<String, Config.Table> tables = new HashMap<>();
+  Map<Config.Table, TableColumns> tableColumns = new HashMap<>();
+  Map<Long, Config.Table> tableIds = new HashMap<>();
+  List<Change> transaction = new ArrayList<>();
+  ChangeBatch batch = new ChangeBatch();
+  String filename;
+  BinlogPosition committed;
+  BinaryLogClient client;
+  ScheduledExecutorService ticker;
+  ExecutorService applier;
+  Future<?> applying = null;
+  volatile Exception failure = null;
+
+  public BinlogReader(Config config, Mysql mysql, BatchHandler handler) {
+    this.config = config;
+    this.mysql = mysql;
+    this.handler = handler;
+    for (Config.Table table : config.tables) {
+      if (table.primaryKey == null) {
+        throw new IllegalArgumentException(String.format("%s needs a primary key to merge changes", table.name));
+      }
+      tables.put(table.name, table);
+      tableColumns.put(table, resolveColumns(table));
+    }
+  }
+
+  // reads from the position on, until stop is called or something fails
+  public void run(BinlogPosition from) throws IOException {
+    filename = from.getFilename();
+    committed = from;
+
+    client = new BinaryLogClient(config.mysql.host, config.mysql.port, config.mysql.user, config.mysql.password);
+    client.setServerId(config.cdc.serverId);
+    client.setBinlogFilename(from.getFilename());
+    client.setBinlogPosition(from.getPosition());
+    EventDeserializer deserializer = new EventDeserializer();
+    deserializer.setCompatibilityMode(
+      EventDeserializer.CompatibilityMode.DATE_AND_TIME_AS_LONG_MICRO,
+      EventDeserializer.CompatibilityMode.INVALID_DATE_AND_TIME_AS_MIN_VALUE,
+      EventDeserializer.CompatibilityMode.CHAR_AND_BINARY_AS_BYTE_ARRAY);
+    client.setEventDeserializer(deserializer);
+    client.registerEventListener(this::onEvent);
+    client.registerLifecycleListener(new BinaryLogClient.AbstractLifecycleListener() {
+      @Override
+      public void onCommunicationFailure(BinaryLogClient client, Exception ex) {
+        fail(ex);
+      }
+
+      @Override
+      public void onEventDeserializationFailure(BinaryLogClient client, Exception ex) {
+        fail(ex);
+      }
+    });
+
+    // an idle binlog still has to hand over the batch it has
+    ticker = Executors.newSingleThreadScheduledExecutor();
+    ticker.scheduleWithFixedDelay(() -> {
+      try {
+        flushIfDue();
+      } catch (Exception e) {
+        fail(e);
+      }
+    }, 1, 1, TimeUnit.SECONDS);
+
+    applier = Executors.newSingleThreadExecutor();
+    LOG.info(String.format("reading binlog from %s", from));
+    try {
+      client.connect();
+    } finally {
+      ticker.shutdownNow();
+      // the batch being applied is let finish, so its position is saved along with it
+      applier.shutdown();
+      try {
+        applier.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+      } catch (InterruptedException e) {
+        // do nothing
+      }
+    }
+    if (failure != null) throw new RuntimeException(failure);
+  }
+
+  public void stop() {
+    try {
+      client.disconnect();
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  synchronized void onEvent(Event event) {
+    if (failure != null) return;
+    try {
+      EventHeaderV4 header = event.getHeader();
+      EventType type = header.getEventType();
+      if (type == EventType.ROTATE) {
+        RotateEventData rotate = event.getData();
+        filename = rotate.getBinlogFilename();
+      } else if (type == EventType.TABLE_MAP) {
+        mapTable(event.getData());
+      } else if (EventType.isWrite(type)) {
+        WriteRowsEventData data = event.getData();
+        Config.Table table = tableIds.get(data.getTableId());
+        if (table == null) return;
+        for (Serializable[] values : data.getRows()) {
+          addChange(table, values, false);
+        }
+      } else if (EventType.isUpdate(type)) {
+        UpdateRowsEventData data = event.getData();
+        Config.Table table = tableIds.get(data.getTableId());
+        if (table == null) return;
+        for (Map.Entry<Serializable[], Serializable[]> values : data.getRows()) {
+          String before = keyOf(table, values.getKey());
+          // a changed primary key leaves the old row behind, so it is deleted
+          if (!before.equals(keyOf(table, values.getValue()))) addChange(table, values.getKey(), true);
+          addChange(table, values.getValue(), false);
+        }
+      } else if (EventType.isDelete(type)) {
+        DeleteRowsEventData data = event.getData();
+        Config.Table table = tableIds.get(data.getTableId());
+        if (table == null) return;
+        for (Serializable[] values : data.getRows()) {
+          addChange(table, values, true);
+        }
+      } else if (type == EventType.XID) {
+        commit(header.getNextPosition());
+      } else if (type == EventType.QUERY) {
+        // transactions of non transactional tables end with a plain COMMIT instead of a xid
+        QueryEventData query = event.getData();
+        if ("COMMIT".equalsIgnoreCase(query.getSql())) commit(header.getNextPosition());
+      }
+    } catch (Exception e) {
+      fail(e);
+    }
+  }
+
+  synchronized void flushIfDue() throws InterruptedException, ExecutionException {
+    if (failure != null || batch.isEmpty()) return;
+    long age = System.currentTimeMillis() - batch.getStartedAt();
+    boolean full = batch.getChangeCount() >= config.cdc.batchRows;
+    if (!full && age < config.cdc.batchSeconds * 1000L) return;
+    if (applying != null && !applying.isDone()) {
+      // an old batch keeps growing meanwhile, a full one waits so memory stays bounded
+      if (!full) return;
+      LOG.info(String.format("waiting for the last batch before applying %s", batch));
+      applying.get();
+    }
+
+    ChangeBatch ready = batch;
+    BinlogPosition position = committed;
+    batch = new ChangeBatch();
+    LOG.info(String.format("applying %s up to %s", ready, position));
+    applying = applier.submit(() -> {
+      try {
+        handler.apply(ready, position);
+      } catch (Exception e) {
+        fail(e);
+      }
+    });
+  }
+
+  private void commit(long nextPosition) throws InterruptedException, ExecutionException {
+    for (Change change : transaction) {
+      batch.put(change.table, change.key, change.row);
+    }
+    transaction.clear();
+    committed = new BinlogPosition(filename, nextPosition);
+    flushIfDue();
+  }
+
+  private void mapTable(TableMapEventData data) {
+    if (!config.mysql.database.equals(data.getDatabase())) return;
+    Config.Table table = tables.get(data.getTable());
+    if (table == null) return;
+    tableIds.put(data.getTableId(), table);
+    if (data.getColumnTypes().length != tableColumns.get(table).sourceCount) {
+      // the table was altered since its columns were read
+      LOG.info(String.format("columns of %s changed, reading them again", table.name));
+      tableColumns.put(table, resolveColumns(table));
+    }
+  }
+
+  private void addChange(Config.Table table, Serializable[] values, boolean deleted) throws IOException {
+    TableColumns columns = tableColumns.get(table);
+    if (values.length != columns.sourceCount) {
+      throw new IllegalStateException(
+        String.format(
+          "%s has %s values in the binlog but %s columns, binlog_row_image must be FULL",
+          table.name, values.length, columns.sourceCount));
+    }
+    Row row = new Row(columns.columns.length + 1);
+    for (int i = 0; i != columns.columns.length; i++) {
+      SourceColumn column = columns.columns[i];
+      String value = BinlogValues.format(column, values[column.getPosition()]);
+      row.set(i, value == null ? null : ScrubbingInputStream.scrub(value));
+    }
+    row.set(columns.columns.length, deleted ? "1" : "0");
+    transaction.add(new Change(table, keyOf(table, values), row));
+  }
+
+  private String keyOf(Config.Table table, Serializable[] values) throws IOException {
+    SourceColumn key = tableColumns.get(table).key;
+    return BinlogValues.format(key, values[key.getPosition()]);
+  }
+
+  private TableColumns resolveColumns(Config.Table table) {
+    List<SourceColumn> source = mysql.sourceColumns(table);
+    Map<String, SourceColumn> byName = new HashMap<>();
+    for (SourceColumn column : source) {
+      byName.put(column.getName().toLowerCase(), column);
+    }
+
+    TableColumns columns = new TableColumns();
+    columns.sourceCount = source.size();
+    columns.columns = new SourceColumn[table.columns.size()];
+    int i = 0;
+    for (String name : table.columns.keySet()) {
+      columns.columns[i] = byName.get(name.toLowerCase());
+      if (columns.columns[i] == null) {
+        throw new IllegalArgumentException(String.format("%s has no column %s in mysql", table.name, name));
+      }
+      i++;
+    }
+    columns.key = byName.get(table.primaryKey.toLowerCase());
+    if (columns.key == null) {
+      throw new IllegalArgumentException(String.format("%s has no column %s in mysql", table.name, table.primaryKey));
+    }
+    return columns;
+  }
+
+  private void fail(Exception e) {
+    LOG.error(String.format("failed reading the binlog, %s", e));
+    failure = e;
+    try {
+      client.disconnect();
+    } catch (IOException disconnectException) {
+      // do nothing
+    }
+  }
+}
@@ -0,0 +1,105 @@
+package com.patreon.euphrates;
+
+import javafixes.concurrency.ReusableCountLatch;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.LogManager;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+// Keeps the redshift tables up to date by streaming changes from the binlog, after a full copy
+// the first time. Each batch of changes is staged like a dump would be, with a deleted flag after
+// the columns, and merged into the live tables along with the binlog position it goes up to, so
+// a restart picks up from the last batch applied. Replaying changes already applied is harmless,
+// since the merge replaces rows by primary key.
+public class BinlogReplicator {
+
+  private static final Logger LOG = LogManager.getLogger(BinlogReplicator.class);
+  static final String DELETED_COLUMN = "euphrates_deleted";
+
+  Config config;
+  // stages and copies the tables with their deleted flag
+  Replicator replicator = null;
+  Map<String, Config.Table> stagedTables = new LinkedHashMap<>();
+  BinlogReader reader;
+
+  public BinlogReplicator(Config config) {
+    this.config = config;
+    for (Config.Table table : config.tables) {
+      Map<String, String> columns = new LinkedHashMap<>(table.columns);
+      columns.put(DELETED_COLUMN, "smallint not null");
+      stagedTables.put(
+        table.name, new Config.Table(table.name, table.extra, columns, table.primaryKey, 1, null, null, null));
+    }
+  }
+
+  public void start() {
+    try {
+      BinlogPosition position = snapshot();
+      // created after the snapshot, which uploads the formats of the tables without the flag
+      List<Config.Table> staged = stagedTables.values().stream().collect(Collectors.toList());
+      replicator = new Replicator(config.withTables(staged));
+      reader = new BinlogReader(config, replicator.getMysql(), this::apply);
+      reader.run(position);
+    } catch (Exception e) {
+      App.fatal(e);
+    }
+  }
+
+  public void shutdown() {
+    if (replicator != null) replicator.shutdown();
+  }
+
+  // copies every table in full when changes were never applied, and returns where the binlog was
+  // at before the copy started, or exactly at the copy with a consistent snapshot
+  private BinlogPosition snapshot() {
+    Replicator full = new Replicator(config);
+    try {
+      BinlogPosition position = full.getRedshift().getBinlogPosition();
+      if (position != null) return position;
+
+      position = full.getMysql().masterStatus();
+      LOG.info(String.format("copying every table before reading the binlog from %s", position));
+      full.start();
+      if (full.getSnapshotPosition() != null) position = full.getSnapshotPosition();
+      full.getRedshift().saveBinlogPosition(position);
+      return position;
+    } finally {
+      full.shutdown();
+    }
+  }
+
+  private void apply(ChangeBatch batch, BinlogPosition position) {
+    try {
+      long startTime = System.currentTimeMillis();
+      List<Schema> schemas = new ArrayList<>();
+      for (Config.Table table : batch.getTables()) {
+        schemas.add(new Schema(config.redshift.schema, stagedTables.get(table.name)));
+      }
+      replicator.getRedshift().prepareStagingTables(schemas);
+
+      ReusableCountLatch finished = new ReusableCountLatch();
+      for (Config.Table table : batch.getTables()) {
+        SegmentEncoder encoder = new SegmentEncoder(replicator, finished);
+        for (Row row : batch.getRows(table)) {
+          encoder.add(stagedTables.get(table.name), row);
+        }
+        encoder.finish();
+      }
+      finished.waitTillZero();
+
+      replicator.getRedshift().applyChanges(batch.getTables(), DELETED_COLUMN, position);
+      LOG.info(
+        String.format(
+          "applied %s up to %s in %s seconds",
+          batch,
+          position,
+          (System.currentTimeMillis() - startTime) / 1000));
+    } catch (Exception e) {
+      App.fatal(e);
+    }
+  }
+}
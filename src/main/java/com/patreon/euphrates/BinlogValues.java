@@ -0,0 +1,110 @@
+package com.patreon.euphrates;
+
+import com.github.shyiko.mysql.binlog.event.deserialization.json.JsonBinary;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.BitSet;
+import java.util.List;
+
+// Turns the values of binlog rows into the text mysqldump --tz-utc would print for them, so rows
+// streamed from the binlog load into redshift the same way dumped rows do. Expects the binlog
+// client to read dates and times as utc micros and text as bytes.
+public class BinlogValues {
+
+  private static final DateTimeFormatter DATE = DateTimeFormatter.ofPattern("yyyy-MM-dd");
+  private static final DateTimeFormatter DATETIME = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+  private static final BigInteger UNSIGNED_BIGINT = BigInteger.ONE.shiftLeft(64);
+
+  public static String format(SourceColumn column, Serializable value) throws IOException {
+    if (value == null) return null;
+    switch (column.getDataType()) {
+      case "tinyint":
+        return unsigned(column, value, 8);
+      case "smallint":
+        return unsigned(column, value, 16);
+      case "mediumint":
+        return unsigned(column, value, 24);
+      case "int":
+        return unsigned(column, value, 32);
+      case "bigint":
+        long bigint = ((Number) value).longValue();
+        if (column.isUnsigned() && bigint < 0) {
+          return BigInteger.valueOf(bigint).add(UNSIGNED_BIGINT).toString();
+        }
+        return Long.toString(bigint);
+      case "decimal":
+        return ((BigDecimal) value).toPlainString();
+      case "date":
+        return dateTime((Long) value, DATE, 0, "0000-00-00");
+      case "datetime":
+      case "timestamp":
+        return dateTime((Long) value, DATETIME, column.getFractionalDigits(), "0000-00-00 00:00:00");
+      case "time":
+        return time((Long) value, column.getFractionalDigits());
+      case "enum":
+        int index = ((Number) value).intValue();
+        // 0 is the empty string mysql stores for values that weren't in the enum
+        return index == 0 ? "" : column.getLabels().get(index - 1);
+      case "set":
+        return set(column.getLabels(), ((Number) value).longValue());
+      case "bit":
+        long bits = 0;
+        BitSet bitSet = (BitSet) value;
+        for (int i = bitSet.nextSetBit(0); i >= 0; i = bitSet.nextSetBit(i + 1)) {
+          bits |= 1L << i;
+        }
+        return Long.toString(bits);
+      case "json":
+        return JsonBinary.parseAsString((byte[]) value);
+      default:
+        if (value instanceof byte[]) return new String((byte[]) value, StandardCharsets.UTF_8);
+        return value.toString();
+    }
+  }
+
+  // the binlog holds unsigned integers in signed java types of the column's width
+  private static String unsigned(SourceColumn column, Serializable value, int bits) {
+    long number = ((Number) value).longValue();
+    if (column.isUnsigned() && number < 0) number += 1L << bits;
+    return Long.toString(number);
+  }
+
+  // fractions are printed with as many digits as the column keeps, like mysqldump does
+  private static String dateTime(long micros, DateTimeFormatter formatter, int digits, String zero) {
+    // zero dates are read as the smallest long
+    if (micros == Long.MIN_VALUE) return zero + fraction(0, digits);
+    long seconds = Math.floorDiv(micros, 1_000_000L);
+    String text = formatter.format(Instant.ofEpochSecond(seconds).atOffset(ZoneOffset.UTC));
+    return text + fraction(Math.floorMod(micros, 1_000_000L), digits);
+  }
+
+  // times can be negative or longer than a day
+  private static String time(long micros, int digits) {
+    String sign = micros < 0 ? "-" : "";
+    long seconds = Math.abs(micros) / 1_000_000L;
+    return String.format("%s%02d:%02d:%02d", sign, seconds / 3600, seconds / 60 % 60, seconds % 60)
+             + fraction(Math.abs(micros) % 1_000_000L, digits);
+  }
+
+  private static String fraction(long micros, int digits) {
+    if (digits == 0) return "";
+    return "." + String.format("%06d", micros).substring(0, digits);
+  }
+
+  private static String set(List<String> labels, long mask) {
+    StringBuilder set = new StringBuilder();
+    for (int i = 0; i != labels.size(); i++) {
+      if ((mask & (1L << i)) == 0) continue;
+      if (set.length() != 0) set.append(',');
+      set.append(labels.get(i));
+    }
+    return set.toString();
+  }
+}
@@ -0,0 +1,46 @@
+package com.patreon.euphrates;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+
+// Equally sized buffers, allocated on first use and recycled after that. Only buffers handed
+// over to be uploaded are bounded: acquiring one blocks while all of them are in flight. The
+// buffer each open stream writes into is not, so a stream holding a partly filled buffer can
+// never keep another from sending its full one.
+class BufferPool {
+
+  int bufferSize;
+  Semaphore inFlight;
+  ConcurrentLinkedQueue<byte[]> buffers = new ConcurrentLinkedQueue<>();
+
+  BufferPool(int bufferSize, int maxInFlight) {
+    this.bufferSize = bufferSize;
+    this.inFlight = new Semaphore(maxInFlight);
+  }
+
+  int getBufferSize() {
+    return bufferSize;
+  }
+
+  // a buffer to write into, which never waits
+  byte[] allocate() {
+    byte[] buffer = buffers.poll();
+    return buffer == null ? new byte[bufferSize] : buffer;
+  }
+
+  // waits until another full buffer may be in flight
+  void acquire() throws InterruptedException {
+    inFlight.acquire();
+  }
+
+  // gives back a buffer that was in flight
+  void release(byte[] buffer) {
+    buffers.add(buffer);
+    inFlight.release();
+  }
+
+  // gives back a buffer that was only written into
+  void recycle(byte[] buffer) {
+    buffers.add(buffer);
+  }
+}
@@ -0,0 +1,30 @@
+package com.patreon.euphrates;
+
+// Bounds the bytes held at once, such as finished segments waiting on local disk for an upload.
+// Acquiring blocks while the budget can't cover the bytes, except that a single holder may always
+// go over it, so a segment bigger than the whole budget still makes progress.
+class ByteBudget {
+
+  long budget;
+  long used = 0;
+
+  ByteBudget(long budget) {
+    this.budget = budget;
+  }
+
+  synchronized void acquire(long bytes) throws InterruptedException {
+    while (used > 0 && used + bytes > budget) {
+      wait();
+    }
+    used += bytes;
+  }
+
+  synchronized void release(long bytes) {
+    used -= bytes;
+    notifyAll();
+  }
+
+  synchronized long getUsed() {
+    return used;
+  }
+}
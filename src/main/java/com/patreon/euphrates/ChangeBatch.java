@@ -0,0 +1,52 @@
+package com.patreon.euphrates;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+// The changes of the committed transactions read from the binlog since the last batch was applied.
+// Only the last change of each row is kept, since that is the one the live table should end up with.
+public class ChangeBatch {
+
+  Map<Config.Table, LinkedHashMap<String, Row>> changes = new LinkedHashMap<>();
+  long startedAt = System.currentTimeMillis();
+  int changeCount = 0;
+
+  // the row holds the values of the table's columns followed by whether the row was deleted
+  public void put(Config.Table table, String key, Row row) {
+    changes.computeIfAbsent(table, t -> new LinkedHashMap<>()).put(key, row);
+    changeCount++;
+  }
+
+  public boolean isEmpty() {
+    return changes.isEmpty();
+  }
+
+  // every change read, including those replaced by a later change of the same row
+  public int getChangeCount() {
+    return changeCount;
+  }
+
+  public long getStartedAt() {
+    return startedAt;
+  }
+
+  public Set<Config.Table> getTables() {
+    return changes.keySet();
+  }
+
+  public Collection<Row> getRows(Config.Table table) {
+    return changes.get(table).values();
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder description = new StringBuilder();
+    for (Map.Entry<Config.Table, LinkedHashMap<String, Row>> entry : changes.entrySet()) {
+      if (description.length() != 0) description.append(", ");
+      description.append(String.format("%s rows of %s", entry.getValue().size(), entry.getKey().name));
+    }
+    return description.toString();
+  }
+}
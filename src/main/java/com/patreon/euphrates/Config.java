@@ -21,17 +21,34 @@ public class Config {
   public final Redshift redshift;
   public final List<Table> tables;
   public final S3 s3;
+  // only needed to stream changes from the binlog
+  public final Cdc cdc;
+  // optional, without it the metrics are only readable over jmx
+  public final Metrics metrics;
+  // only needed to keep running and copy tables on their intervals
+  public final Daemon daemon;
 
   @JsonCreator
   public Config(
                  @JsonProperty("mysql") Mysql mysql,
                  @JsonProperty("redshift") Redshift redshift,
                  @JsonProperty("tables") List<Table> tables,
-                 @JsonProperty("s3") S3 s3) {
+                 @JsonProperty("s3") S3 s3,
+                 @JsonProperty("cdc") Cdc cdc,
+                 @JsonProperty("metrics") Metrics metrics,
+                 @JsonProperty("daemon") Daemon daemon) {
     this.mysql = mysql;
     this.redshift = redshift;
     this.tables = tables;
     this.s3 = s3;
+    this.cdc = cdc == null ? new Cdc(null, null, null) : cdc;
+    this.metrics = metrics;
+    this.daemon = daemon == null ? new Daemon(null, null, null) : daemon;
+  }
+
+  // the same config, copying the given tables instead
+  public Config withTables(List<Table> tables) {
+    return new Config(mysql, redshift, tables, s3, cdc, metrics, daemon);
   }
 
   public static class Mysql {
@@ -41,6 +58,10 @@ public class Config {
     final public int port;
     final public String database;
     final public int maxConnections;
+    // either mysqldump or jdbc
+    final public String extractor;
+    // every extraction reads from one snapshot taken under a brief global read lock, jdbc only
+    final public boolean consistentSnapshot;
 
     @JsonCreator
     public Mysql(
@@ -49,17 +70,24 @@ public class Config {
                   @JsonProperty("host") String host,
                   @JsonProperty("port") int port,
                   @JsonProperty("database") String database,
-                  @JsonProperty("maxConnections") int maxConnections) {
+                  @JsonProperty("maxConnections") int maxConnections,
+                  @JsonProperty("extractor") String extractor,
+                  @JsonProperty("consistentSnapshot") Boolean consistentSnapshot) {
       this.user = user;
       this.password = password;
       this.host = host;
       this.port = port;
       this.database = database;
       this.maxConnections = maxConnections;
+      this.extractor = extractor == null ? "mysqldump" : extractor;
+      this.consistentSnapshot = consistentSnapshot != null && consistentSnapshot;
     }
   }
 
   public static class Redshift {
+    public static final String RENAME = "rename";
+    public static final String VERSIONED = "versioned";
+
     final public String user;
     final public String password;
     final public String host;
@@ -67,6 +95,18 @@ public class Config {
     final public String database;
     final public int maxConnections;
     final public String schema;
+    // files per COPY to start from and the most a COPY may take, both rounded to the cluster's slices
+    final public int copyFiles;
+    final public int maxCopyFiles;
+    // copies of a table get bigger while more than this share of their time is fixed overhead
+    final public double copyOverheadShare;
+    // guess at that overhead until the table's copies differ enough in size to measure it
+    final public double copyOverheadSeconds;
+    // how long a copy waits for a full round of files while more of its table's segments are coming
+    final public long copyWaitMillis;
+    // rename swaps each live table for its staging table, versioned loads tables of each run
+    // under a name of their own and repoints a late binding view at them
+    final public String swap;
 
     @JsonCreator
     public Redshift(
@@ -76,7 +116,13 @@ public class Config {
                      @JsonProperty("port") int port,
                      @JsonProperty("database") String database,
                      @JsonProperty("maxConnections") int maxConnections,
-                     @JsonProperty("schema") String schema) {
+                     @JsonProperty("schema") String schema,
+                     @JsonProperty("copyFiles") Integer copyFiles,
+                     @JsonProperty("maxCopyFiles") Integer maxCopyFiles,
+                     @JsonProperty("copyOverheadShare") Double copyOverheadShare,
+                     @JsonProperty("copyOverheadSeconds") Double copyOverheadSeconds,
+                     @JsonProperty("copyWaitMillis") Long copyWaitMillis,
+                     @JsonProperty("swap") String swap) {
       this.user = user;
       this.password = password;
       this.host = host;
@@ -84,41 +130,155 @@ public class Config {
       this.database = database;
       this.maxConnections = maxConnections;
       this.schema = schema;
+      this.copyFiles = copyFiles == null ? 10 : copyFiles;
+      this.maxCopyFiles = maxCopyFiles == null ? 80 : maxCopyFiles;
+      this.copyOverheadShare = copyOverheadShare == null ? 0.25 : copyOverheadShare;
+      this.copyOverheadSeconds = copyOverheadSeconds == null ? 2 : copyOverheadSeconds;
+      this.copyWaitMillis = copyWaitMillis == null ? 5000 : copyWaitMillis;
+      this.swap = swap == null ? RENAME : swap;
     }
   }
 
   public static class Table {
+    public static final String CHECKSUM = "checksum";
+
     final public String name;
     final public String extra;
     final public Map<String, String> columns;
+    // integer primary key used to split the table into ranges, and how many ranges to dump in parallel
+    final public String primaryKey;
+    final public int chunks;
+    // column that grows whenever a row changes, such as updated_at. With a primary key, runs after
+    // the first only copy the rows changed since the last run and merge them into the live table
+    final public String watermark;
+    // checksum, or a column that grows whenever a row changes. A table whose fingerprint is the
+    // same as when it was last loaded isn't copied again
+    final public String fingerprint;
+    // seconds between copies of the table in daemon mode, the daemon's default when missing
+    final public Integer interval;
 
     @JsonCreator
     public Table(
                   @JsonProperty("name") String name,
                   @JsonProperty("extra") String extra,
-                  @JsonProperty("columns") Map<String, String> columns) {
+                  @JsonProperty("columns") Map<String, String> columns,
+                  @JsonProperty("primaryKey") String primaryKey,
+                  @JsonProperty("chunks") Integer chunks,
+                  @JsonProperty("watermark") String watermark,
+                  @JsonProperty("fingerprint") String fingerprint,
+                  @JsonProperty("interval") Integer interval) {
       this.name = name;
       this.extra = extra;
       this.columns = columns;
+      this.primaryKey = primaryKey;
+      this.chunks = chunks == null ? 1 : chunks;
+      this.watermark = watermark;
+      this.fingerprint = fingerprint;
+      this.interval = interval;
     }
   }
 
   public static class S3 {
+    public static final String JSON = "json";
+    public static final String DELIMITED = "delimited";
+
     final public String bucket;
     final public String iamRole;
     final public String region;
     final public int minimumSegmentSize;
+    // threads per extraction serializing and compressing segments, 0 does it on the extracting thread
+    final public int encoderThreads;
+    // upload segments as they are written instead of going through /tmp files
+    final public boolean streamingUpload;
+    // multipart upload part size in bytes, s3 needs at least 5MB, and how many parts may be in memory
+    final public int partSize;
+    final public int partBuffers;
+    // how segments are written and loaded, json arrays or pipe delimited text
+    final public String format;
+    // bytes of finished segments that may wait on local disk for their upload
+    final public long uploadBudget;
+    // most segment uploads at once, the number in between adapts to the throughput of s3
+    final public int maxUploads;
+    // when copied segments are deleted, see S3Cleaner
+    final public String cleanup;
 
     @JsonCreator
     public S3(
                @JsonProperty("bucket") String bucket,
                @JsonProperty("region") String region,
                @JsonProperty("iamRole") String iamRole,
-               @JsonProperty("minimumSegmentSize") int minimumSegmentSize) {
+               @JsonProperty("minimumSegmentSize") int minimumSegmentSize,
+               @JsonProperty("encoderThreads") Integer encoderThreads,
+               @JsonProperty("streamingUpload") Boolean streamingUpload,
+               @JsonProperty("partSize") Integer partSize,
+               @JsonProperty("partBuffers") Integer partBuffers,
+               @JsonProperty("format") String format,
+               @JsonProperty("uploadBudget") Long uploadBudget,
+               @JsonProperty("maxUploads") Integer maxUploads,
+               @JsonProperty("cleanup") String cleanup) {
       this.bucket = bucket;
       this.iamRole = iamRole;
       this.region = region;
       this.minimumSegmentSize = minimumSegmentSize;
+      this.encoderThreads = encoderThreads == null ? 0 : encoderThreads;
+      this.streamingUpload = streamingUpload != null && streamingUpload;
+      this.partSize = partSize == null ? 8 * 1024 * 1024 : Math.max(partSize, 5 * 1024 * 1024);
+      this.partBuffers = partBuffers == null ? 16 : partBuffers;
+      this.format = format == null ? JSON : format;
+      this.uploadBudget = uploadBudget == null ? 4L * 1024 * 1024 * 1024 : uploadBudget;
+      this.maxUploads = maxUploads == null ? 100 : Math.max(maxUploads, 1);
+      this.cleanup = cleanup == null ? S3Cleaner.IMMEDIATE : cleanup;
+    }
+  }
+
+  public static class Cdc {
+    // must differ from the server id of every other replica of the mysql server
+    final public long serverId;
+    // a batch of changes is applied once it is this old or has this many rows, whichever is first
+    final public int batchSeconds;
+    final public int batchRows;
+
+    @JsonCreator
+    public Cdc(
+                @JsonProperty("serverId") Long serverId,
+                @JsonProperty("batchSeconds") Integer batchSeconds,
+                @JsonProperty("batchRows") Integer batchRows) {
+      this.serverId = serverId == null ? 65535 : serverId;
+      this.batchSeconds = batchSeconds == null ? 60 : batchSeconds;
+      this.batchRows = batchRows == null ? 100_000 : batchRows;
+    }
+  }
+
+  public static class Metrics {
+    // serves the metrics in the prometheus text format at /metrics
+    final public int port;
+    // only reachable from the box itself unless told otherwise
+    final public String host;
+
+    @JsonCreator
+    public Metrics(
+                    @JsonProperty("port") int port,
+                    @JsonProperty("host") String host) {
+      this.port = port;
+      this.host = host == null ? "127.0.0.1" : host;
+    }
+  }
+
+  public static class Daemon {
+    // seconds between copies of tables without an interval of their own
+    final public int interval;
+    // takes manual snapshot requests at /snapshot, only from the box itself unless told otherwise
+    final public int port;
+    final public String host;
+
+    @JsonCreator
+    public Daemon(
+                   @JsonProperty("interval") Integer interval,
+                   @JsonProperty("port") Integer port,
+                   @JsonProperty("host") String host) {
+      this.interval = interval == null ? 3600 : interval;
+      this.port = port == null ? 8642 : port;
+      this.host = host == null ? "127.0.0.1" : host;
     }
   }
 }
@@ -0,0 +1,108 @@
+package com.patreon.euphrates;
+
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.LogManager;
+
+import java.util.HashMap;
+import java.util.Map;
+
+// Decides how many segments each COPY of a table loads. Every COPY pays a fixed overhead for
+// planning and committing on top of the time its files take, so a table whose recent COPYs were
+// mostly overhead gets bigger manifests, and one whose COPYs are mostly loading gets smaller ones,
+// which get its first rows in sooner. The overhead is the intercept of a line through the files
+// and seconds of its recent COPYs, or the configured guess until their sizes differ. A table
+// with a deep queue is drained in as few COPYs as the maximum allows regardless. Manifests are
+// always whole rounds of files over the slices of the cluster.
+class CopyBatchPolicy {
+
+  private static final Logger LOG = LogManager.getLogger(CopyBatchPolicy.class);
+  // recent copies of each table the overhead is estimated from
+  private static final int HISTORY = 8;
+
+  static class TableState {
+    int target;
+    int[] files = new int[HISTORY];
+    double[] seconds = new double[HISTORY];
+    int count = 0;
+
+    TableState(int target) {
+      this.target = target;
+    }
+  }
+
+  int round;
+  int minimum;
+  int maximum;
+  double overheadShare;
+  double overheadSeconds;
+  Map<String, TableState> tables = new HashMap<>();
+
+  CopyBatchPolicy(Config.Redshift config, int slices) {
+    this.round = slices;
+    this.minimum = toRounds(config.copyFiles);
+    this.maximum = Math.max(minimum, toRounds(config.maxCopyFiles));
+    this.overheadShare = config.copyOverheadShare;
+    this.overheadSeconds = config.copyOverheadSeconds;
+  }
+
+  // the most files the next copy of the table should take, given how many are waiting
+  synchronized int manifestFiles(String table, int pending) {
+    int target = state(table).target;
+    if (pending >= 2 * target) return Math.min(maximum, Math.max(target, pending - pending % round));
+    return target;
+  }
+
+  synchronized void record(String table, int files, double seconds) {
+    TableState state = state(table);
+    int slot = state.count % HISTORY;
+    state.files[slot] = files;
+    state.seconds[slot] = seconds;
+    state.count++;
+
+    double share = seconds > 0 ? estimateOverhead(state) / seconds : 0;
+    int target = state.target;
+    if (share > overheadShare) {
+      target = Math.min(maximum, target * 2);
+    } else if (share < overheadShare / 2) {
+      target = Math.max(minimum, toRounds(target / 2));
+    }
+    if (target != state.target) {
+      LOG.info(
+        String.format(
+          "copies of %s are %.0f%% overhead, taking up to %s files per copy", table, share * 100, target));
+      state.target = target;
+    }
+  }
+
+  private double estimateOverhead(TableState state) {
+    int n = Math.min(state.count, HISTORY);
+    double meanFiles = 0;
+    double meanSeconds = 0;
+    double fewestSeconds = Double.MAX_VALUE;
+    for (int i = 0; i != n; i++) {
+      meanFiles += state.files[i];
+      meanSeconds += state.seconds[i];
+      fewestSeconds = Math.min(fewestSeconds, state.seconds[i]);
+    }
+    meanFiles /= n;
+    meanSeconds /= n;
+    double covariance = 0;
+    double variance = 0;
+    for (int i = 0; i != n; i++) {
+      covariance += (state.files[i] - meanFiles) * (state.seconds[i] - meanSeconds);
+      variance += (state.files[i] - meanFiles) * (state.files[i] - meanFiles);
+    }
+    double overhead = overheadSeconds;
+    if (variance > 0) overhead = meanSeconds - covariance / variance * meanFiles;
+    // no copy can have taken less than its overhead
+    return Math.max(0, Math.min(overhead, fewestSeconds));
+  }
+
+  private TableState state(String table) {
+    return tables.computeIfAbsent(table, t -> new TableState(minimum));
+  }
+
+  private int toRounds(int files) {
+    return round * Math.max(1, Math.round((float) files / round));
+  }
+}
@@ -0,0 +1,196 @@
+package com.patreon.euphrates;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+// Hands uploaded segments to the copy workers. A table is ready when it has pending segments and
+// no worker is copying it, and a waiting worker is woken as soon as one is, so no worker polls
+// tables in turn or holds a table while it waits. Only one worker copies a table at a time, and
+// adding a segment to a table with a full queue waits for a copy to take some off it. It also
+// knows which tables still have extractions open or segments on their way, so a copy doesn't wait
+// for segments that will never come.
+public class CopyDispatcher<T> {
+
+  static class TableQueue<T> {
+    String name;
+    ArrayDeque<T> pending = new ArrayDeque<>();
+    // claimed by a worker, or waiting in the ready queue
+    boolean busy;
+    int openStreams = 0;
+    // segments being written or uploaded
+    int coming = 0;
+
+    TableQueue(String name) {
+      this.name = name;
+    }
+  }
+
+  int capacity;
+  Map<String, TableQueue<T>> tables = new HashMap<>();
+  // tables in the order they became ready
+  ArrayDeque<TableQueue<T>> ready = new ArrayDeque<>();
+  int pendingCount = 0;
+  ReentrantLock lock = new ReentrantLock();
+  Condition tableReady = lock.newCondition();
+  Condition added = lock.newCondition();
+  Condition taken = lock.newCondition();
+
+  public CopyDispatcher(List<String> tableNames, int capacity) {
+    this.capacity = capacity;
+    for (String name : tableNames) {
+      tables.put(name, new TableQueue<>(name));
+    }
+  }
+
+  public void put(String table, T job) throws InterruptedException {
+    lock.lock();
+    try {
+      TableQueue<T> queue = tables.get(table);
+      while (queue.pending.size() >= capacity) {
+        taken.await();
+      }
+      queue.pending.add(job);
+      pendingCount++;
+      queue.coming = Math.max(0, queue.coming - 1);
+      if (!queue.busy) {
+        queue.busy = true;
+        ready.add(queue);
+        tableReady.signal();
+      }
+      added.signalAll();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  // waits for a ready table and claims it, until release is called for it
+  public String next() throws InterruptedException {
+    lock.lock();
+    try {
+      while (ready.isEmpty()) {
+        tableReady.await();
+      }
+      return ready.poll().name;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  // Takes the segments for one copy of a claimed table. Waits up to the given time for at least
+  // a round of segments while more of them are coming, then takes as many whole rounds as there are up to the maximum, or
+  // everything there is when that is less than a round.
+  public List<T> take(String table, int round, int maximum, long waitMillis) throws InterruptedException {
+    lock.lock();
+    try {
+      TableQueue<T> queue = tables.get(table);
+      long remaining = TimeUnit.MILLISECONDS.toNanos(waitMillis);
+      // a full queue can't grow any more, so there is no point in waiting on it
+      while (queue.pending.size() < round
+               && queue.pending.size() < capacity
+               && (queue.openStreams > 0 || queue.coming > 0)
+               && remaining > 0) {
+        remaining = added.awaitNanos(remaining);
+      }
+      int count = Math.min(queue.pending.size(), maximum);
+      if (count > round) count -= count % round;
+      List<T> jobs = new ArrayList<>(count);
+      for (int i = 0; i != count; i++) {
+        jobs.add(queue.pending.poll());
+      }
+      pendingCount -= count;
+      taken.signalAll();
+      return jobs;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  // gives a claimed table back, making it ready again straight away when segments are left
+  public void release(String table) {
+    lock.lock();
+    try {
+      TableQueue<T> queue = tables.get(table);
+      if (queue.pending.isEmpty()) {
+        queue.busy = false;
+      } else {
+        ready.add(queue);
+        tableReady.signal();
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public void openStream(String table) {
+    update(table, queue -> queue.openStreams++);
+  }
+
+  public void closeStream(String table) {
+    update(table, queue -> queue.openStreams--);
+  }
+
+  // a segment of the table was started, which put hands over once it is uploaded
+  public void segmentStarted(String table) {
+    update(table, queue -> queue.coming++);
+  }
+
+  public int getPendingCount(String table) {
+    lock.lock();
+    try {
+      return tables.get(table).pending.size();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private void update(String table, Consumer<TableQueue<T>> change) {
+    lock.lock();
+    try {
+      change.accept(tables.get(table));
+      // a copy waiting for more may have nothing left to wait for
+      added.signalAll();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  // nothing is waiting to be copied or being copied
+  public boolean isIdle() {
+    lock.lock();
+    try {
+      return ready.isEmpty() && tables.values().stream().noneMatch(queue -> queue.busy);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  // forgets the streams and segments a failed run never finished, once nothing is extracting
+  public void resetStreams() {
+    lock.lock();
+    try {
+      for (TableQueue<T> queue : tables.values()) {
+        queue.openStreams = 0;
+        queue.coming = 0;
+      }
+      added.signalAll();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public int getPendingCount() {
+    lock.lock();
+    try {
+      return pendingCount;
+    } finally {
+      lock.unlock();
+    }
+  }
+}
@@ -0,0 +1,31 @@
+package com.patreon.euphrates;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+// Counts the bytes that go through it.
+class CountingOutputStream extends FilterOutputStream {
+
+  long count = 0;
+
+  CountingOutputStream(OutputStream out) {
+    super(out);
+  }
+
+  long getCount() {
+    return count;
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    out.write(b);
+    count++;
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException {
+    out.write(b, off, len);
+    count += len;
+  }
+}
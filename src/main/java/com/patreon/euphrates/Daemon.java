@@ -0,0 +1,184 @@
+package com.patreon.euphrates;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.LogManager;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Keeps one Replicator running and copies each table whenever its interval has passed, so runs
+// after the first start with warm pools and a warm jit. Runs never overlap. The tables that come
+// due while one is going are copied together by the next run, once each however late they are.
+// A snapshot of some or all tables can be asked for at any time with a POST to /snapshot, such
+// as /snapshot?tables=users,pledges, which is queued for the next run the same way. A run that
+// fails is tried again a minute later, resuming where it stopped. Failures off the run's own
+// thread, of uploads and copies, still exit, and a restarted daemon resumes the same way.
+public class Daemon {
+
+  private static final Logger LOG = LogManager.getLogger(Daemon.class);
+  private static final long RETRY_MILLIS = 60_000;
+
+  Config config;
+  Replicator replicator;
+  HttpServer trigger;
+  // when each table is due next, in milliseconds
+  Map<String, Long> dueAt = new HashMap<>();
+  Set<String> requested = new LinkedHashSet<>();
+  List<String> tableNames;
+  volatile boolean stopped = false;
+  AtomicBoolean shutDown = new AtomicBoolean(false);
+
+  public Daemon(Config config) {
+    this.config = config;
+    this.replicator = new Replicator(config);
+    this.tableNames = names(config.tables);
+    // every table is copied as soon as the daemon starts
+    long now = System.currentTimeMillis();
+    for (Config.Table table : config.tables) {
+      dueAt.put(table.name, now);
+    }
+    try {
+      trigger = HttpServer.create(new InetSocketAddress(config.daemon.host, config.daemon.port), 0);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+    trigger.createContext("/snapshot", this::snapshot);
+  }
+
+  public void start() {
+    // a stopped service, such as on SIGTERM, gets its pools closed and its position kept
+    Runtime.getRuntime().addShutdownHook(new Thread(this::shutdown));
+    trigger.start();
+    LOG.info(String.format("taking snapshot requests at http://%s:%s/snapshot", config.daemon.host, config.daemon.port));
+    try {
+      while (!stopped) {
+        List<Config.Table> tables = nextTables();
+        if (tables.isEmpty()) break;
+        long startedAt = System.currentTimeMillis();
+        LOG.info(String.format("starting a run of %s", names(tables)));
+        try {
+          // every run resumes, so whatever the last one left unfinished isn't copied again
+          replicator.run(tables, true);
+        } catch (Exception e) {
+          if (stopped) break;
+          LOG.error(String.format("run of %s failed, trying again in %s seconds", names(tables), RETRY_MILLIS / 1000), e);
+          replicator.recover();
+          retry(tables);
+          continue;
+        }
+        LOG.info(String.format("run of %s took %s seconds", names(tables), (System.currentTimeMillis() - startedAt) / 1000));
+        scheduleNext(tables, startedAt);
+      }
+    } catch (InterruptedException e) {
+      // do nothing
+    }
+  }
+
+  public void shutdown() {
+    stopped = true;
+    if (!shutDown.compareAndSet(false, true)) return;
+    synchronized (this) {
+      notifyAll();
+    }
+    trigger.stop(0);
+    replicator.shutdown();
+  }
+
+  // waits until some table is due or requested, and takes every table that is, or none once stopped
+  private synchronized List<Config.Table> nextTables() throws InterruptedException {
+    while (!stopped) {
+      long now = System.currentTimeMillis();
+      long nextDue = Long.MAX_VALUE;
+      List<Config.Table> tables = new ArrayList<>();
+      for (Config.Table table : config.tables) {
+        long due = dueAt.get(table.name);
+        if (due <= now || requested.contains(table.name)) {
+          tables.add(table);
+        } else {
+          nextDue = Math.min(nextDue, due);
+        }
+      }
+      if (!tables.isEmpty()) {
+        requested.clear();
+        return tables;
+      }
+      wait(nextDue - now);
+    }
+    return new ArrayList<>();
+  }
+
+  private synchronized void retry(List<Config.Table> tables) {
+    long retryAt = System.currentTimeMillis() + RETRY_MILLIS;
+    for (Config.Table table : tables) {
+      dueAt.put(table.name, retryAt);
+    }
+  }
+
+  // the next copy is an interval after this one started, or right away when that has passed
+  private synchronized void scheduleNext(List<Config.Table> tables, long startedAt) {
+    for (Config.Table table : tables) {
+      int interval = table.interval == null ? config.daemon.interval : table.interval;
+      dueAt.put(table.name, startedAt + interval * 1000L);
+    }
+  }
+
+  private synchronized void request(List<String> tables) {
+    requested.addAll(tables);
+    notifyAll();
+  }
+
+  private void snapshot(HttpExchange exchange) throws IOException {
+    int status;
+    String body;
+    if (!"POST".equals(exchange.getRequestMethod())) {
+      status = 405;
+      body = "POST to ask for a snapshot\n";
+    } else {
+      List<String> tables = new ArrayList<>();
+      String unknown = null;
+      String query = exchange.getRequestURI().getQuery();
+      if (query != null && query.startsWith("tables=")) {
+        for (String name : query.substring("tables=".length()).split(",")) {
+          if (!tableNames.contains(name)) unknown = name;
+          tables.add(name);
+        }
+      } else {
+        tables.addAll(tableNames);
+      }
+      if (unknown != null) {
+        status = 404;
+        body = String.format("no table %s\n", unknown);
+      } else {
+        request(tables);
+        status = 202;
+        body = String.format("queued %s\n", tables);
+        LOG.info(String.format("snapshot of %s requested", tables));
+      }
+    }
+    byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+    exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+    exchange.sendResponseHeaders(status, bytes.length);
+    try (OutputStream out = exchange.getResponseBody()) {
+      out.write(bytes);
+    }
+  }
+
+  private static List<String> names(List<Config.Table> tables) {
+    List<String> names = new ArrayList<>();
+    for (Config.Table table : tables) {
+      names.add(table.name);
+    }
+    return names;
+  }
+}
@@ -0,0 +1,49 @@
+package com.patreon.euphrates;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+// Writes rows as pipe delimited lines, for a COPY with DELIMITER '|' ESCAPE. The delimiter,
+// backslashes and line breaks inside values are escaped with a backslash, and null is written as
+// an unescaped \N, the COPY default, so a value of \N itself still loads as text.
+public class DelimitedRowWriter extends RowWriter {
+
+  // the longest encoding of a single char, four utf8 bytes of a surrogate pair
+  private static final int MAX_CHAR_BYTES = 4;
+  private static final byte[] NULL = {'\\', 'N'};
+
+  public DelimitedRowWriter(OutputStream out) {
+    super(out);
+  }
+
+  @Override
+  public void write(Row row) throws IOException {
+    for (int i = 0, len = row.size(); i != len; i++) {
+      ensureCapacity(NULL.length + 1);
+      if (i != 0) buffer[position++] = '|';
+      if (row.isNull(i)) {
+        System.arraycopy(NULL, 0, buffer, position, NULL.length);
+        position += NULL.length;
+      } else {
+        writeValue(row.chars(i), row.length(i));
+      }
+    }
+    ensureCapacity(1);
+    buffer[position++] = '\n';
+  }
+
+  private void writeValue(char[] chars, int length) throws IOException {
+    for (int i = 0; i != length; i++) {
+      ensureCapacity(MAX_CHAR_BYTES);
+      char c = chars[i];
+      if (c < 0x80) {
+        if (c == '|' || c == '\\' || c == '\n' || c == '\r') {
+          buffer[position++] = '\\';
+        }
+        buffer[position++] = (byte) c;
+      } else {
+        i = writeNonAscii(chars, i, length);
+      }
+    }
+  }
+}
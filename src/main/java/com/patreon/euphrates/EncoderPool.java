@@ -0,0 +1,109 @@
+package com.patreon.euphrates;
+
+import javafixes.concurrency.ReusableCountLatch;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.LogManager;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+
+// Moves serialization and compression off the extracting thread. Rows are copied into batches
+// from a fixed ring, the batches are dealt out round robin to encoder threads, and each encoder
+// fills segments of its own.
+class EncoderPool {
+
+  private static final Logger LOG = LogManager.getLogger(EncoderPool.class);
+  private static final int BATCH_SIZE = 512;
+  private static final int BATCHES_PER_ENCODER = 4;
+  // markers telling an encoder the table ended, or that there are no more tables
+  private static final RowBatch END_OF_TABLE = new RowBatch(0);
+  private static final RowBatch END_OF_STREAM = new RowBatch(0);
+
+  ExecutorService encoders;
+  BlockingQueue<RowBatch> free;
+  List<BlockingQueue<RowBatch>> queues = new ArrayList<>();
+  RowBatch current = null;
+  int nextQueue = 0;
+  volatile CountDownLatch tableEnded;
+
+  EncoderPool(Replicator replicator, Supplier<ReusableCountLatch> latches, int encoderThreads) {
+    this.encoders = Executors.newFixedThreadPool(encoderThreads);
+    this.free = new ArrayBlockingQueue<>(encoderThreads * BATCHES_PER_ENCODER);
+    for (int i = 0; i != encoderThreads * BATCHES_PER_ENCODER; i++) {
+      free.add(new RowBatch(BATCH_SIZE));
+    }
+    for (int i = 0; i != encoderThreads; i++) {
+      // room for every batch of the ring and both markers, so handing off only waits on the ring
+      BlockingQueue<RowBatch> queue = new ArrayBlockingQueue<>(encoderThreads * BATCHES_PER_ENCODER + 2);
+      queues.add(queue);
+      encoders.submit(() -> encode(new SegmentEncoder(replicator, latches), queue));
+    }
+  }
+
+  void add(Config.Table table, Row row) {
+    try {
+      // blocks while every batch of the ring is waiting on an encoder
+      if (current == null) current = free.take();
+      current.add(table, row);
+      if (current.isFull()) publish();
+    } catch (InterruptedException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  // returns once every encoder has handed off the segment it had open for the table
+  void endTable() {
+    try {
+      if (current != null) publish();
+      tableEnded = new CountDownLatch(queues.size());
+      for (BlockingQueue<RowBatch> queue : queues) {
+        queue.put(END_OF_TABLE);
+      }
+      tableEnded.await();
+    } catch (InterruptedException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  void shutdown() {
+    for (BlockingQueue<RowBatch> queue : queues) {
+      queue.add(END_OF_STREAM);
+    }
+    encoders.shutdown();
+  }
+
+  private void publish() throws InterruptedException {
+    queues.get(nextQueue).put(current);
+    nextQueue = (nextQueue + 1) % queues.size();
+    current = null;
+  }
+
+  private void encode(SegmentEncoder encoder, BlockingQueue<RowBatch> queue) {
+    try {
+      while (true) {
+        RowBatch batch = queue.take();
+        if (batch == END_OF_STREAM) return;
+        if (batch == END_OF_TABLE) {
+          encoder.finish();
+          tableEnded.countDown();
+          continue;
+        }
+        for (int i = 0; i != batch.size; i++) {
+          encoder.add(batch.table, batch.rows[i]);
+        }
+        batch.clear();
+        free.put(batch);
+      }
+    } catch (InterruptedException e) {
+      LOG.error(String.format("interruptted! %s", e));
+    } catch (Exception e) {
+      App.fatal(e);
+    }
+  }
+}
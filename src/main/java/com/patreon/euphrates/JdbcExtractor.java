@@ -0,0 +1,85 @@
+package com.patreon.euphrates;
+
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.LogManager;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+// Reads rows straight from mysql with a streaming result set, skipping the xml round trip
+// that mysqldump and the StreamParser need.
+public class JdbcExtractor {
+
+  private static final Logger LOG = LogManager.getLogger(JdbcExtractor.class);
+
+  Replicator replicator;
+  RowSink stream;
+
+  public JdbcExtractor(Replicator replicator, RowSink stream) {
+    this.replicator = replicator;
+    this.stream = stream;
+  }
+
+  // extracts all chunks inside one transaction, like mysqldump --single-transaction would
+  public void extract(List<TableChunk> chunks) {
+    try (Connection connection = replicator.getMysql().getConnection()) {
+      replicator.getMysql().startTransaction(connection);
+      for (TableChunk chunk : chunks) {
+        select(connection, chunk);
+      }
+      try (Statement statement = connection.createStatement()) {
+        statement.execute("COMMIT");
+      }
+    } catch (SQLException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  // extracts all chunks with a connection of a snapshot, whose transaction is already started
+  public void extract(Connection connection, List<TableChunk> chunks) {
+    try {
+      for (TableChunk chunk : chunks) {
+        select(connection, chunk);
+      }
+    } catch (SQLException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private void select(Connection connection, TableChunk chunk) throws SQLException {
+    Config.Table table = chunk.getTable();
+    List<String> columns = new ArrayList<>(table.columns.keySet());
+    String query =
+      String.format(
+        "select %s from `%s`%s",
+        columns.stream().map(c -> String.format("`%s`", c)).collect(Collectors.joining(", ")),
+        table.name,
+        chunk.isWholeTable() ? "" : " where " + chunk.where());
+
+    LOG.info(String.format("Running %s", query));
+
+    try (Statement statement =
+           connection.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+      // makes connector/j stream rows one at a time instead of buffering the result set
+      statement.setFetchSize(Integer.MIN_VALUE);
+      try (ResultSet rs = statement.executeQuery(query)) {
+        stream.start(table);
+        int columnCount = columns.size();
+        Row row = new Row(columnCount);
+        while (rs.next()) {
+          for (int i = 0; i != columnCount; i++) {
+            String value = rs.getString(i + 1);
+            row.set(i, value == null ? null : ScrubbingInputStream.scrub(value));
+          }
+          stream.add(row);
+        }
+        stream.end();
+      }
+    }
+  }
+}
@@ -0,0 +1,77 @@
+package com.patreon.euphrates;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+// Writes rows as json arrays, one per line. The bytes match what an ObjectMapper string pushed
+// through a utf8 writer used to produce, including characters outside the BMP, which jackson's own
+// utf8 generator would escape.
+public class JsonRowWriter extends RowWriter {
+
+  // the longest encoding of a single char, a six byte unicode escape
+  private static final int MAX_CHAR_BYTES = 6;
+  private static final byte[] HEX = "0123456789ABCDEF".getBytes();
+  private static final byte[] NULL = "null".getBytes();
+
+  public JsonRowWriter(OutputStream out) {
+    super(out);
+  }
+
+  @Override
+  public void write(Row row) throws IOException {
+    ensureCapacity(1);
+    buffer[position++] = '[';
+    for (int i = 0, len = row.size(); i != len; i++) {
+      ensureCapacity(NULL.length + 1);
+      if (i != 0) buffer[position++] = ',';
+      if (row.isNull(i)) {
+        System.arraycopy(NULL, 0, buffer, position, NULL.length);
+        position += NULL.length;
+      } else {
+        writeString(row.chars(i), row.length(i));
+      }
+    }
+    ensureCapacity(2);
+    buffer[position++] = ']';
+    buffer[position++] = '\n';
+  }
+
+  private void writeString(char[] chars, int length) throws IOException {
+    ensureCapacity(1);
+    buffer[position++] = '"';
+    for (int i = 0; i != length; i++) {
+      ensureCapacity(MAX_CHAR_BYTES);
+      char c = chars[i];
+      if (c < 0x80) {
+        if (c >= 0x20 && c != '"' && c != '\\') {
+          buffer[position++] = (byte) c;
+        } else {
+          writeEscape(c);
+        }
+      } else {
+        i = writeNonAscii(chars, i, length);
+      }
+    }
+    ensureCapacity(1);
+    buffer[position++] = '"';
+  }
+
+  private void writeEscape(char c) {
+    buffer[position++] = '\\';
+    switch (c) {
+      case '"': buffer[position++] = '"'; break;
+      case '\\': buffer[position++] = '\\'; break;
+      case '\b': buffer[position++] = 'b'; break;
+      case '\t': buffer[position++] = 't'; break;
+      case '\n': buffer[position++] = 'n'; break;
+      case '\f': buffer[position++] = 'f'; break;
+      case '\r': buffer[position++] = 'r'; break;
+      default:
+        buffer[position++] = 'u';
+        buffer[position++] = '0';
+        buffer[position++] = '0';
+        buffer[position++] = HEX[c >> 4];
+        buffer[position++] = HEX[c & 0xf];
+    }
+  }
+}
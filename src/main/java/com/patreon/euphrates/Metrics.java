@@ -0,0 +1,237 @@
+package com.patreon.euphrates;
+
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.LogManager;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+
+// Counters, gauges and histograms of every stage of the pipeline, readable over JMX as attributes
+// of com.patreon.euphrates:type=Metrics, and in the prometheus text format for the MetricsServer.
+// Updating a counter or histogram is cheap enough for the hot paths, they stripe like LongAdder.
+public class Metrics {
+
+  private static final Logger LOG = LogManager.getLogger(Metrics.class);
+  private static final Map<String, Metric> METRICS = new ConcurrentSkipListMap<>();
+  // seconds, from a quick s3 put to a long COPY
+  private static final double[] BUCKETS = {0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30, 60, 120, 300, 600};
+
+  public static Counter counter(String name, String help) {
+    return (Counter) METRICS.computeIfAbsent(name, n -> new Counter(n, help));
+  }
+
+  public static Histogram histogram(String name, String help) {
+    return (Histogram) METRICS.computeIfAbsent(name, n -> new Histogram(n, help));
+  }
+
+  // replaces any gauge of the same name, the newest owner of the value reports it
+  public static void gauge(String name, String help, DoubleSupplier value) {
+    METRICS.put(name, new Gauge(name, help, value));
+  }
+
+  public static String prometheus() {
+    StringBuilder text = new StringBuilder();
+    for (Metric metric : METRICS.values()) {
+      text.append(String.format("# HELP %s %s\n", metric.name, metric.help));
+      text.append(String.format("# TYPE %s %s\n", metric.name, metric.type));
+      metric.writeSamples(text);
+    }
+    return text.toString();
+  }
+
+  public static void registerMBean() {
+    try {
+      ManagementFactory.getPlatformMBeanServer()
+        .registerMBean(new MetricsMBean(), new ObjectName("com.patreon.euphrates:type=Metrics"));
+    } catch (Exception e) {
+      // metrics are nice to have, never a reason to stop
+      LOG.error(String.format("could not register metrics with jmx, %s", e));
+    }
+  }
+
+  abstract static class Metric {
+    final String name;
+    final String help;
+    final String type;
+
+    Metric(String name, String help, String type) {
+      this.name = name;
+      this.help = help;
+      this.type = type;
+    }
+
+    abstract void writeSamples(StringBuilder text);
+
+    abstract void addAttributes(Map<String, Double> attributes);
+  }
+
+  public static class Counter extends Metric {
+    LongAdder value = new LongAdder();
+
+    Counter(String name, String help) {
+      super(name, help, "counter");
+    }
+
+    public void increment() {
+      value.increment();
+    }
+
+    public void add(long amount) {
+      value.add(amount);
+    }
+
+    @Override
+    void writeSamples(StringBuilder text) {
+      text.append(String.format("%s %s\n", name, value.sum()));
+    }
+
+    @Override
+    void addAttributes(Map<String, Double> attributes) {
+      attributes.put(name, (double) value.sum());
+    }
+  }
+
+  public static class Gauge extends Metric {
+    DoubleSupplier value;
+
+    Gauge(String name, String help, DoubleSupplier value) {
+      super(name, help, "gauge");
+      this.value = value;
+    }
+
+    @Override
+    void writeSamples(StringBuilder text) {
+      text.append(String.format("%s %s\n", name, value.getAsDouble()));
+    }
+
+    @Override
+    void addAttributes(Map<String, Double> attributes) {
+      attributes.put(name, value.getAsDouble());
+    }
+  }
+
+  public static class Histogram extends Metric {
+    // the last bucket counts everything above the highest bound
+    LongAdder[] buckets = new LongAdder[BUCKETS.length + 1];
+    LongAdder count = new LongAdder();
+    // in nanoseconds, so it can be a LongAdder too
+    LongAdder sumNanos = new LongAdder();
+
+    Histogram(String name, String help) {
+      super(name, help, "histogram");
+      for (int i = 0; i != buckets.length; i++) {
+        buckets[i] = new LongAdder();
+      }
+    }
+
+    public void observeNanos(long nanos) {
+      double seconds = nanos / 1e9;
+      int bucket = 0;
+      while (bucket != BUCKETS.length && seconds > BUCKETS[bucket]) bucket++;
+      buckets[bucket].increment();
+      count.increment();
+      sumNanos.add(nanos);
+    }
+
+    // observes the nanos since the start
+    public void observeSince(long startNanos) {
+      observeNanos(System.nanoTime() - startNanos);
+    }
+
+    @Override
+    void writeSamples(StringBuilder text) {
+      long cumulative = 0;
+      for (int i = 0; i != BUCKETS.length; i++) {
+        cumulative += buckets[i].sum();
+        text.append(String.format("%s_bucket{le=\"%s\"} %s\n", name, BUCKETS[i], cumulative));
+      }
+      cumulative += buckets[BUCKETS.length].sum();
+      text.append(String.format("%s_bucket{le=\"+Inf\"} %s\n", name, cumulative));
+      text.append(String.format("%s_sum %s\n", name, sumNanos.sum() / 1e9));
+      text.append(String.format("%s_count %s\n", name, count.sum()));
+    }
+
+    @Override
+    void addAttributes(Map<String, Double> attributes) {
+      attributes.put(name + "_count", (double) count.sum());
+      attributes.put(name + "_sum", sumNanos.sum() / 1e9);
+    }
+  }
+
+  // every metric as a read only attribute, histograms as their count and sum
+  static class MetricsMBean implements DynamicMBean {
+
+    private Map<String, Double> attributes() {
+      Map<String, Double> attributes = new LinkedHashMap<>();
+      for (Metric metric : METRICS.values()) {
+        metric.addAttributes(attributes);
+      }
+      return attributes;
+    }
+
+    @Override
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+      Double value = attributes().get(attribute);
+      if (value == null) throw new AttributeNotFoundException(attribute);
+      return value;
+    }
+
+    // no attribute is writable
+    @Override
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+      throw new AttributeNotFoundException(String.format("%s is read only", attribute.getName()));
+    }
+
+    @Override
+    public AttributeList getAttributes(String[] names) {
+      Map<String, Double> attributes = attributes();
+      AttributeList list = new AttributeList();
+      for (String name : names) {
+        if (attributes.containsKey(name)) list.add(new Attribute(name, attributes.get(name)));
+      }
+      return list;
+    }
+
+    // read only, so none of them is set
+    @Override
+    public AttributeList setAttributes(AttributeList attributes) {
+      return new AttributeList();
+    }
+
+    // there are no operations
+    @Override
+    public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+      throw new ReflectionException(new NoSuchMethodException(actionName));
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo() {
+      List<MBeanAttributeInfo> infos = new ArrayList<>();
+      for (String name : attributes().keySet()) {
+        infos.add(new MBeanAttributeInfo(name, Double.class.getName(), name, true, false, false));
+      }
+      return new MBeanInfo(
+        Metrics.class.getName(),
+        "euphrates pipeline metrics",
+        infos.toArray(new MBeanAttributeInfo[0]),
+        null,
+        new MBeanOperationInfo[0],
+        null);
+    }
+  }
+}
@@ -0,0 +1,47 @@
+package com.patreon.euphrates;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.LogManager;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+// Serves the metrics in the prometheus text format at /metrics, for a scraper or a curl mid run.
+public class MetricsServer {
+
+  private static final Logger LOG = LogManager.getLogger(MetricsServer.class);
+
+  HttpServer server;
+
+  public MetricsServer(Config.Metrics config) {
+    try {
+      server = HttpServer.create(new InetSocketAddress(config.host, config.port), 0);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+    server.createContext("/metrics", this::serve);
+  }
+
+  public void start() {
+    server.start();
+    LOG.info(String.format("serving metrics at http://%s:%s/metrics", server.getAddress().getHostString(), server.getAddress().getPort()));
+  }
+
+  // the server's dispatcher thread would otherwise keep the jvm alive after the run
+  public void stop() {
+    server.stop(0);
+  }
+
+  private void serve(HttpExchange exchange) throws IOException {
+    byte[] body = Metrics.prometheus().getBytes(StandardCharsets.UTF_8);
+    exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+    exchange.sendResponseHeaders(200, body.length);
+    try (OutputStream out = exchange.getResponseBody()) {
+      out.write(body);
+    }
+  }
+}
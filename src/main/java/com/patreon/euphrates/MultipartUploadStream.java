@@ -0,0 +1,165 @@
+package com.patreon.euphrates;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PartETag;
+import com.amazonaws.services.s3.model.UploadPartRequest;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.LogManager;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+// Uploads whatever is written to it as an s3 object without touching disk. Every full buffer is
+// sent as a multipart upload part in the background while writing goes on, and closing hands the
+// rest of the upload to the uploader, so neither writing nor closing waits on s3. A segment that
+// never fills a buffer is sent with a single put instead.
+class MultipartUploadStream extends OutputStream {
+
+  private static final Logger LOG = LogManager.getLogger(MultipartUploadStream.class);
+
+  S3Writer s3Writer;
+  AmazonS3 client;
+  BufferPool buffers;
+  ExecutorService partUploader;
+  String bucket;
+  String key;
+  TableStats stats;
+  // runs on the uploader once the object is complete
+  Runnable uploaded;
+  byte[] buffer = null;
+  int position = 0;
+  String uploadId = null;
+  // when the first part started uploading, parts overlap so the segment is timed as a whole
+  long uploadStartNanos = 0;
+  int partNumber = 0;
+  List<Future<PartETag>> parts = new ArrayList<>();
+  boolean closed = false;
+
+  MultipartUploadStream(S3Writer s3Writer, String key, TableStats stats, Runnable uploaded) {
+    this.s3Writer = s3Writer;
+    this.client = s3Writer.getClient();
+    this.buffers = s3Writer.getPartBuffers();
+    this.partUploader = s3Writer.getPartUploader();
+    this.bucket = s3Writer.getReplicator().getConfig().s3.bucket;
+    this.key = key;
+    this.stats = stats;
+    this.uploaded = uploaded;
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    ensureBuffer();
+    buffer[position++] = (byte) b;
+    if (position == buffer.length) uploadPart();
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException {
+    while (len > 0) {
+      ensureBuffer();
+      int length = Math.min(len, buffer.length - position);
+      System.arraycopy(b, off, buffer, position, length);
+      position += length;
+      off += length;
+      len -= length;
+      if (position == buffer.length) uploadPart();
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (closed) return;
+    closed = true;
+    if (uploadId != null && position > 0) uploadPart();
+    s3Writer.getUploader().execute(this::complete);
+  }
+
+  private void ensureBuffer() {
+    if (buffer != null) return;
+    buffer = buffers.allocate();
+    position = 0;
+  }
+
+  private void uploadPart() throws IOException {
+    try {
+      // waits for a part upload to hand its buffer back when all of them are in flight
+      buffers.acquire();
+    } catch (InterruptedException e) {
+      throw new InterruptedIOException(e.getMessage());
+    }
+    if (uploadId == null) {
+      uploadStartNanos = System.nanoTime();
+      uploadId = client.initiateMultipartUpload(new InitiateMultipartUploadRequest(bucket, key)).getUploadId();
+    }
+    String partUploadId = uploadId;
+    int number = ++partNumber;
+    byte[] part = buffer;
+    int length = position;
+    buffer = null;
+    position = 0;
+    parts.add(partUploader.submit(() -> {
+      long startNanos = System.nanoTime();
+      try {
+        UploadPartRequest request =
+          new UploadPartRequest()
+            .withBucketName(bucket)
+            .withKey(key)
+            .withUploadId(partUploadId)
+            .withPartNumber(number)
+            .withInputStream(new ByteArrayInputStream(part, 0, length))
+            .withPartSize(length);
+        PartETag etag = client.uploadPart(request).getPartETag();
+        S3Writer.PUT_SECONDS.observeSince(startNanos);
+        return etag;
+      } finally {
+        buffers.release(part);
+      }
+    }));
+  }
+
+  private void complete() {
+    try {
+      long startNanos = System.nanoTime();
+      if (uploadId == null) {
+        ObjectMetadata metadata = new ObjectMetadata();
+        metadata.setContentLength(position);
+        try {
+          client.putObject(bucket, key, new ByteArrayInputStream(buffer == null ? new byte[0] : buffer, 0, position), metadata);
+          S3Writer.PUT_SECONDS.observeSince(startNanos);
+        } finally {
+          if (buffer != null) buffers.recycle(buffer);
+          buffer = null;
+        }
+      } else {
+        List<PartETag> etags = new ArrayList<>();
+        for (Future<PartETag> part : parts) {
+          etags.add(part.get());
+        }
+        startNanos = uploadStartNanos;
+        client.completeMultipartUpload(new CompleteMultipartUploadRequest(bucket, key, uploadId, etags));
+      }
+      stats.addUpload(System.nanoTime() - startNanos);
+      LOG.debug(String.format("done uploading %s in %s parts", key, Math.max(partNumber, 1)));
+      uploaded.run();
+    } catch (Exception e) {
+      if (uploadId != null) {
+        try {
+          client.abortMultipartUpload(new AbortMultipartUploadRequest(bucket, key, uploadId));
+        } catch (Exception abortException) {
+          LOG.error(String.format("could not abort upload of %s, %s", key, abortException));
+        }
+      }
+      App.fatal(e);
+    }
+  }
+}
@@ -0,0 +1,204 @@
+package com.patreon.euphrates;
+
+import org.apache.commons.dbcp2.BasicDataSource;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.LogManager;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class Mysql {
+
+  private static final Logger LOG = LogManager.getLogger(Mysql.class);
+
+  BasicDataSource connectionPool;
+  Replicator replicator;
+  Config config;
+
+  public Mysql(Replicator replicator) {
+    this(replicator.getConfig());
+    this.replicator = replicator;
+  }
+
+  public Mysql(Config config) {
+    this.config = config;
+    createMysqlPool();
+  }
+
+  public List<TableChunk> chunk(Config.Table table) {
+    if (table.chunks <= 1 || table.primaryKey == null) {
+      return Collections.singletonList(TableChunk.whole(table));
+    }
+
+    try (Connection connection = connectionPool.getConnection()) {
+      String query =
+        String.format(
+          "select min(%s), max(%s) from %s", table.primaryKey, table.primaryKey, table.name);
+      try (ResultSet rs = connection.createStatement().executeQuery(query)) {
+        rs.next();
+        long min = rs.getLong(1);
+        // an empty table has no bounds to split on
+        if (rs.wasNull()) return Collections.singletonList(TableChunk.whole(table));
+        long max = rs.getLong(2);
+        List<TableChunk> chunks = TableChunk.split(table, min, max);
+        LOG.info(String.format("split %s into %s", table.name, chunks));
+        return chunks;
+      }
+    } catch (SQLException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  // the highest watermark in the table, null when it is empty
+  public String maxWatermark(Config.Table table) {
+    try (Connection connection = connectionPool.getConnection()) {
+      String query = String.format("select max(%s) from %s", table.watermark, table.name);
+      try (ResultSet rs = connection.createStatement().executeQuery(query)) {
+        rs.next();
+        return rs.getString(1);
+      }
+    } catch (SQLException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  // Something that changes whenever the rows of the table do, either what CHECKSUM TABLE gives,
+  // or the row count and the highest value of a column that grows on every change. The columns
+  // copied are part of it too, so changing them in the config copies the table again.
+  public String fingerprint(Config.Table table) {
+    try (Connection connection = connectionPool.getConnection()) {
+      boolean checksum = Config.Table.CHECKSUM.equals(table.fingerprint);
+      String query =
+        checksum
+          ? String.format("checksum table %s", table.name)
+          : String.format("select concat(count(*), '/', coalesce(max(%s), '')) from %s", table.fingerprint, table.name);
+      try (ResultSet rs = connection.createStatement().executeQuery(query)) {
+        rs.next();
+        // checksum table gives the table's name first
+        String value = rs.getString(checksum ? 2 : 1);
+        if (value == null) return null;
+        return String.format("%s:%s:%08x", table.fingerprint, value, table.columns.hashCode());
+      }
+    } catch (SQLException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  // where the binlog is at right now
+  public BinlogPosition masterStatus() {
+    try (Connection connection = connectionPool.getConnection()) {
+      return masterStatus(connection);
+    } catch (SQLException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private BinlogPosition masterStatus(Connection connection) throws SQLException {
+    try (ResultSet rs = connection.createStatement().executeQuery("SHOW MASTER STATUS")) {
+      if (!rs.next()) throw new IllegalStateException("binary logging is not enabled on mysql");
+      return new BinlogPosition(rs.getString("File"), rs.getLong("Position"));
+    }
+  }
+
+  // every column of the table in the order binlog rows hold them
+  public List<SourceColumn> sourceColumns(Config.Table table) {
+    try (Connection connection = connectionPool.getConnection()) {
+      PreparedStatement statement =
+        connection.prepareStatement(
+          "select column_name, ordinal_position, data_type, column_type from information_schema.columns "
+            + "where table_schema = ? and table_name = ? order by ordinal_position");
+      statement.setString(1, config.mysql.database);
+      statement.setString(2, table.name);
+      List<SourceColumn> columns = new ArrayList<>();
+      try (ResultSet rs = statement.executeQuery()) {
+        while (rs.next()) {
+          columns.add(
+            new SourceColumn(
+              rs.getString(1), rs.getInt(2) - 1, rs.getString(3).toLowerCase(), rs.getString(4)));
+        }
+      }
+      return columns;
+    } catch (SQLException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  // Holds a global read lock just long enough to start a transaction on each connection and read
+  // the binlog position, so every transaction sees the same data, which the position matches.
+  public MysqlSnapshot openSnapshot(int count) {
+    List<Connection> connections = new ArrayList<>();
+    try (Connection lockConnection = connectionPool.getConnection()) {
+      long startTime = System.currentTimeMillis();
+      try (Statement lock = lockConnection.createStatement()) {
+        lock.execute("FLUSH TABLES WITH READ LOCK");
+        try {
+          for (int i = 0; i != count; i++) {
+            Connection connection = connectionPool.getConnection();
+            connections.add(connection);
+            startTransaction(connection);
+          }
+          BinlogPosition position = masterStatus(lockConnection);
+          LOG.info(
+            String.format(
+              "opened %s snapshot connections at %s with tables locked for %s ms",
+              count, position, System.currentTimeMillis() - startTime));
+          return new MysqlSnapshot(connections, position);
+        } finally {
+          lock.execute("UNLOCK TABLES");
+        }
+      }
+    } catch (SQLException e) {
+      new MysqlSnapshot(connections, null).close();
+      throw new RuntimeException(e);
+    }
+  }
+
+  // a transaction of its own, like mysqldump --single-transaction --tz-utc would use
+  public void startTransaction(Connection connection) throws SQLException {
+    try (Statement statement = connection.createStatement()) {
+      // dump out timezones
+      statement.execute("SET time_zone = '+00:00'");
+      statement.execute("SET SESSION TRANSACTION ISOLATION LEVEL REPEATABLE READ");
+      statement.execute("START TRANSACTION WITH CONSISTENT SNAPSHOT");
+    }
+  }
+
+  public Connection getConnection() throws SQLException {
+    return connectionPool.getConnection();
+  }
+
+  public void shutdown() {
+    try {
+      connectionPool.close();
+    } catch (SQLException e) {
+      // do nothing
+    }
+  }
+
+  private void createMysqlPool() {
+    String dbUrl =
+      String.format(
+        // stream values as utf8 text, the same way mysqldump would print them, dates and times
+        // included, which getString would otherwise parse, failing on zero dates
+        "jdbc:mysql://%s:%s/%s?characterEncoding=UTF-8&tinyInt1isBit=false&noDatetimeStringSync=true",
+        config.mysql.host,
+        config.mysql.port,
+        config.mysql.database);
+    this.connectionPool = new BasicDataSource();
+    connectionPool.setDriverClassName("com.mysql.jdbc.Driver");
+    connectionPool.setUsername(config.mysql.user);
+    connectionPool.setPassword(config.mysql.password);
+    connectionPool.setUrl(dbUrl);
+    connectionPool.setInitialSize(1);
+    // one more than the extractions, for the connection holding the lock of a snapshot
+    connectionPool.setMaxTotal(config.mysql.maxConnections + 1);
+    // timestamps read as utc, matching the --tz-utc of mysqldump, so watermarks compare the same
+    connectionPool.setConnectionInitSqls(Collections.singletonList("SET time_zone = '+00:00'"));
+  }
+}
@@ -0,0 +1,53 @@
+package com.patreon.euphrates;
+
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.LogManager;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+
+// Connections whose transactions all started from the same point in the binlog, so what they
+// read together is consistent across tables.
+public class MysqlSnapshot implements AutoCloseable {
+
+  private static final Logger LOG = LogManager.getLogger(MysqlSnapshot.class);
+
+  List<Connection> connections;
+  BinlogPosition position;
+
+  public MysqlSnapshot(List<Connection> connections, BinlogPosition position) {
+    this.connections = connections;
+    this.position = position;
+  }
+
+  public Connection getConnection(int index) {
+    return connections.get(index);
+  }
+
+  public int size() {
+    return connections.size();
+  }
+
+  // where the binlog was at when the snapshot was taken
+  public BinlogPosition getPosition() {
+    return position;
+  }
+
+  @Override
+  public void close() {
+    for (Connection connection : connections) {
+      try (Statement statement = connection.createStatement()) {
+        statement.execute("COMMIT");
+      } catch (SQLException e) {
+        LOG.error(String.format("could not end snapshot transaction, %s", e));
+      }
+      try {
+        connection.close();
+      } catch (SQLException e) {
+        // do nothing
+      }
+    }
+  }
+}
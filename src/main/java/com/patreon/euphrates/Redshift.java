@@ -8,24 +8,116 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
 
 public class Redshift {
 
   private static final Logger LOG = LogManager.getLogger(Redshift.class);
+  private static final Metrics.Histogram COPY_SECONDS =
+    Metrics.histogram("euphrates_redshift_copy_seconds", "Time taken by each COPY of a manifest into redshift");
+  // runs of each table the estimates are smoothed over
+  private static final int HISTORY_RUNS = 20;
+  // segments are never made smaller than this to spread a table over more slices
+  private static final long MINIMUM_SLICE_SEGMENT_SIZE = 1024 * 1024;
 
   BasicDataSource connectionPool;
   Replicator replicator;
   Config config;
   HashMap<String, Long> tableSizes = new HashMap<>();
-  HashMap<String, Long> newTableSizes = new HashMap<>();
+  HashMap<String, String> watermarks = new HashMap<>();
+  HashMap<String, String> fingerprints = new HashMap<>();
+  HashMap<String, TableEstimate> estimates = new HashMap<>();
+  ConcurrentHashMap<String, TableStats> runStats = new ConcurrentHashMap<>();
+  int sliceCount;
+  ConcurrentHashMap<String, Long> newTableSizes = new ConcurrentHashMap<>();
+  // names the versions of the tables loaded by this run in versioned swaps
+  long runId = System.currentTimeMillis() / 1000;
+  // drops the versions a versioned swap left behind, which may wait on readers
+  ExecutorService versionDropper = Executors.newSingleThreadExecutor();
 
   public Redshift(Replicator replicator) {
     this.replicator = replicator;
     this.config = replicator.getConfig();
     createRedshiftPool();
     populateTableSizes();
+    populateWatermarks();
+    populateFingerprints();
+    populateHistory();
+    populateSliceCount();
+  }
+
+  // what the table's past runs took, null when it has none
+  public TableEstimate getEstimate(String name) {
+    return estimates.get(name.toLowerCase());
+  }
+
+  // what the table takes this run, kept in the history on shutdown
+  public TableStats getStats(String name) {
+    return runStats.computeIfAbsent(name, n -> new TableStats());
+  }
+
+  // Sized so a table expected to compress to less than a segment per slice still gives every
+  // slice a file to load, never smaller than 1MB or bigger than the configured segment size.
+  public long getSegmentSize(Config.Table table) {
+    TableEstimate estimate = getEstimate(table.name);
+    long maximum = config.s3.minimumSegmentSize;
+    if (estimate == null) return maximum;
+    long perSlice = (long) (estimate.getCompressedBytes() / sliceCount);
+    return Math.max(MINIMUM_SLICE_SEGMENT_SIZE, Math.min(maximum, perSlice));
+  }
+
+  // the watermark the live table was last loaded up to, null when it never was
+  public String getWatermark(String name) {
+    return watermarks.get(name.toLowerCase());
+  }
+
+  // the fingerprint the live table had in mysql when it was last loaded, null when it had none
+  public String getFingerprint(String name) {
+    return fingerprints.get(name.toLowerCase());
+  }
+
+  public boolean tableExists(Config.Table table) {
+    return exists(table.name);
+  }
+
+  public boolean stagingTableExists(Config.Table table) {
+    return exists(Util.tempTable(table));
+  }
+
+  private boolean exists(String name) {
+    try (Connection connection = connectionPool.getConnection()) {
+      PreparedStatement statement =
+        connection.prepareStatement(
+          "select count(*) from information_schema.tables where table_schema = ? and table_name = ?");
+      statement.setString(1, config.redshift.schema);
+      statement.setString(2, name.toLowerCase());
+      try (ResultSet rs = statement.executeQuery()) {
+        rs.next();
+        return rs.getInt(1) != 0;
+      } finally {
+        connection.commit();
+      }
+    } catch (SQLException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  public int getSliceCount() {
+    return sliceCount;
   }
 
   public Long getTableSize(String name) {
@@ -33,7 +125,82 @@ public class Redshift {
     return tableSizes.getOrDefault(name.toLowerCase(), new Long(1)).longValue();
   }
 
-  public void generateTempTable(Schema schema) {
+  // Makes an empty staging table for each schema, over the whole pool at once. A staging table
+  // still there from an earlier run or batch is truncated instead when the DDL that made it,
+  // known by its hash in euphrates_staging_ddl, is the same. Concurrent writes of one table can
+  // fail serialization in redshift, so hashes are forgotten before their tables are dropped and
+  // only saved once they are all made, each time in one transaction.
+  public void prepareStagingTables(List<Schema> schemas) {
+    if (schemas.isEmpty()) return;
+    List<Schema> reused = new ArrayList<>();
+    List<Schema> created = new ArrayList<>();
+    try (Connection connection = connectionPool.getConnection()) {
+      connection.createStatement().execute("create table if not exists euphrates_staging_ddl (tablename varchar(255), ddl_md5 char(32))");
+      Map<String, String> hashes = new HashMap<>();
+      try (ResultSet rs = connection.createStatement().executeQuery("select tablename, ddl_md5 from euphrates_staging_ddl")) {
+        while (rs.next()) {
+          hashes.put(rs.getString(1), rs.getString(2));
+        }
+      }
+      Set<String> existing = new HashSet<>();
+      PreparedStatement tablesStatement =
+        connection.prepareStatement("select table_name from information_schema.tables where table_schema = ?");
+      tablesStatement.setString(1, config.redshift.schema);
+      try (ResultSet rs = tablesStatement.executeQuery()) {
+        while (rs.next()) {
+          existing.add(rs.getString(1));
+        }
+      }
+      PreparedStatement deleteStatement = connection.prepareStatement("delete from euphrates_staging_ddl where tablename = ?");
+      for (Schema schema : schemas) {
+        String staging = Util.tempTable(schema.getTable()).toLowerCase();
+        if (existing.contains(staging) && Util.md5Hex(schema.generate()).equals(hashes.get(staging))) {
+          reused.add(schema);
+        } else {
+          created.add(schema);
+          deleteStatement.setString(1, staging);
+          deleteStatement.execute();
+        }
+      }
+      connection.commit();
+    } catch (SQLException e) {
+      throw new RuntimeException(e);
+    }
+
+    ExecutorService preparers = Executors.newFixedThreadPool(Math.min(config.redshift.maxConnections, schemas.size()));
+    try {
+      List<Future<?>> futures = new ArrayList<>();
+      for (Schema schema : reused) {
+        futures.add(preparers.submit(() -> truncateTempTable(schema)));
+      }
+      for (Schema schema : created) {
+        futures.add(preparers.submit(() -> createTempTable(schema)));
+      }
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    } catch (ExecutionException | InterruptedException e) {
+      throw new RuntimeException(e);
+    } finally {
+      preparers.shutdownNow();
+    }
+
+    try (Connection connection = connectionPool.getConnection()) {
+      PreparedStatement insertStatement = connection.prepareStatement("insert into euphrates_staging_ddl (tablename, ddl_md5) values (?, ?)");
+      for (Schema schema : created) {
+        insertStatement.setString(1, Util.tempTable(schema.getTable()).toLowerCase());
+        insertStatement.setString(2, Util.md5Hex(schema.generate()));
+        insertStatement.addBatch();
+      }
+      insertStatement.executeBatch();
+      connection.commit();
+    } catch (SQLException e) {
+      throw new RuntimeException(e);
+    }
+    LOG.info(String.format("made %s staging tables, truncated %s", created.size(), reused.size()));
+  }
+
+  private void createTempTable(Schema schema) {
     try (Connection connection = connectionPool.getConnection()) {
       connection
         .createStatement()
@@ -49,6 +216,32 @@ public class Redshift {
     }
   }
 
+  // truncate commits by itself in redshift, and frees the space of the rows at once
+  private void truncateTempTable(Schema schema) {
+    try (Connection connection = connectionPool.getConnection()) {
+      connection
+        .createStatement()
+        .execute(String.format("truncate %s.%s", config.redshift.schema, Util.tempTable(schema.getTable())));
+      connection.commit();
+    } catch (SQLException se) {
+      throw new RuntimeException(se);
+    }
+  }
+
+  // removes what a chunk that never finished got into its staging table before it is copied again
+  public void clearStaged(TableChunk chunk) {
+    try (Connection connection = connectionPool.getConnection()) {
+      connection
+        .createStatement()
+        .execute(
+          String.format(
+            "delete from %s.%s where %s", config.redshift.schema, Util.tempTable(chunk.getTable()), chunk.where()));
+      connection.commit();
+    } catch (SQLException se) {
+      throw new RuntimeException(se);
+    }
+  }
+
   public void copyManifestPath(Config.Table table, String manifestPath) {
     try (Connection connection = connectionPool.getConnection()) {
       String copyStatement =
@@ -57,23 +250,39 @@ public class Redshift {
           + String.format(
           "IAM_ROLE '%s'\n",
           config.s3.iamRole)
-          + String.format(
-          "json 's3://%s/%s' gzip TIMEFORMAT AS 'auto' ACCEPTANYDATE TRUNCATECOLUMNS MANIFEST",
-          config.s3.bucket,
-          Util.formatKey(table));
+          + formatClause(table)
+          + " gzip TIMEFORMAT AS 'auto' ACCEPTANYDATE TRUNCATECOLUMNS MANIFEST";
 
       LOG.info(String.format("Running %s", copyStatement));
 
+      long startNanos = System.nanoTime();
       connection.createStatement().execute(copyStatement);
       connection.commit();
+      COPY_SECONDS.observeSince(startNanos);
     } catch (SQLException e) {
       throw new RuntimeException(e);
     }
   }
 
-  public void swapRedshiftTables() {
+  private String formatClause(Config.Table table) {
+    if (Config.S3.DELIMITED.equals(config.s3.format)) {
+      // matches DelimitedRowWriter, null is the default \N
+      return "DELIMITER '|' ESCAPE";
+    }
+    return String.format("json 's3://%s/%s'", config.s3.bucket, Util.formatKey(table));
+  }
+
+  // replaces each live table with its staging table, recording the watermark it was loaded up to
+  public void swapRedshiftTables(
+                                  List<Config.Table> tables,
+                                  Map<String, String> newWatermarks,
+                                  Map<String, String> newFingerprints) {
+    if (Config.Redshift.VERSIONED.equals(config.redshift.swap)) {
+      publishVersions(tables, newWatermarks, newFingerprints);
+      return;
+    }
     try (Connection connection = connectionPool.getConnection()) {
-      for (Config.Table table : config.tables) {
+      for (Config.Table table : tables) {
         connection
           .createStatement()
           .execute(
@@ -87,6 +296,145 @@ public class Redshift {
               config.redshift.schema,
               Util.tempTable(table),
               table.name));
+        saveWatermark(connection, table, newWatermarks.get(table.name));
+        saveFingerprint(connection, table, newFingerprints.get(table.name));
+        markPublished(connection, table);
+        connection.commit();
+      }
+    } catch (SQLException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  // Renames each staging table to a version of this run, which nobody reads yet, then points
+  // every table's view at its new version in one transaction. A late binding view holds no lock
+  // on what it reads, so replacing it doesn't wait on queries of the old version, and drops of the
+  // old versions are left to wait for those in the background. The first versioned swap of a
+  // table replaces the plain table by its view.
+  private void publishVersions(
+                               List<Config.Table> tables,
+                               Map<String, String> newWatermarks,
+                               Map<String, String> newFingerprints) {
+    // the next daemon run may start before the old versions are dropped
+    long published = runId;
+    try (Connection connection = connectionPool.getConnection()) {
+      for (Config.Table table : tables) {
+        connection
+          .createStatement()
+          .execute(
+            String.format(
+              "alter table %s.%s rename to %s", config.redshift.schema, Util.tempTable(table), version(table.name, published)));
+      }
+      connection.commit();
+
+      for (Config.Table table : tables) {
+        if (isBaseTable(connection, table.name)) {
+          connection
+            .createStatement()
+            .execute(String.format("drop table %s.%s", config.redshift.schema, table.name));
+        }
+        connection
+          .createStatement()
+          .execute(
+            String.format(
+              "create or replace view %s.%s as select * from %s.%s with no schema binding",
+              config.redshift.schema, table.name, config.redshift.schema, version(table.name, published)));
+        saveWatermark(connection, table, newWatermarks.get(table.name));
+        saveFingerprint(connection, table, newFingerprints.get(table.name));
+        markPublished(connection, table);
+      }
+      connection.commit();
+      LOG.info(String.format("published version %s of %s", published, tables));
+    } catch (SQLException e) {
+      throw new RuntimeException(e);
+    }
+    versionDropper.submit(() -> dropOldVersions(tables, published));
+  }
+
+  // Keeps the published version and any a later run published since, which the view may point at.
+  private void dropOldVersions(List<Config.Table> tables, long published) {
+    try (Connection connection = connectionPool.getConnection()) {
+      for (Config.Table table : tables) {
+        for (String old : olderVersions(versions(connection, table), published)) {
+          connection.createStatement().execute(String.format("drop table %s.%s", config.redshift.schema, old));
+          connection.commit();
+          LOG.info(String.format("dropped %s", old));
+        }
+      }
+    } catch (SQLException e) {
+      // they are dropped by the next run instead
+      LOG.error(String.format("failed dropping old versions of %s, %s", tables, e));
+    }
+  }
+
+  static String version(String name, long runId) {
+    return String.format("%s_v%s", name, runId);
+  }
+
+  static List<String> olderVersions(List<String> versions, long published) {
+    List<String> older = new ArrayList<>();
+    for (String version : versions) {
+      if (versionNumber(version) < published) older.add(version);
+    }
+    return older;
+  }
+
+  // every version of the table, newest first
+  private List<String> versions(Connection connection, Config.Table table) throws SQLException {
+    Pattern versionName = Pattern.compile(Pattern.quote(table.name.toLowerCase()) + "_v[0-9]+");
+    List<String> versions = new ArrayList<>();
+    try (PreparedStatement statement =
+           connection.prepareStatement(
+             "select table_name from information_schema.tables where table_schema = ? and table_type = 'BASE TABLE'")) {
+      statement.setString(1, config.redshift.schema);
+      try (ResultSet rs = statement.executeQuery()) {
+        while (rs.next()) {
+          if (versionName.matcher(rs.getString(1)).matches()) versions.add(rs.getString(1));
+        }
+      }
+    }
+    versions.sort((a, b) -> Long.compare(versionNumber(b), versionNumber(a)));
+    return versions;
+  }
+
+  private static long versionNumber(String version) {
+    return Long.parseLong(version.substring(version.lastIndexOf("_v") + 2));
+  }
+
+  private boolean isBaseTable(Connection connection, String name) throws SQLException {
+    try (PreparedStatement statement =
+           connection.prepareStatement(
+             "select count(*) from information_schema.tables where table_schema = ? and table_name = ? and table_type = 'BASE TABLE'")) {
+      statement.setString(1, config.redshift.schema);
+      statement.setString(2, name.toLowerCase());
+      try (ResultSet rs = statement.executeQuery()) {
+        rs.next();
+        return rs.getInt(1) > 0;
+      }
+    }
+  }
+
+  // the table holding the live rows, the current version behind the view in versioned swaps
+  private String liveTable(Connection connection, Config.Table table) throws SQLException {
+    if (Config.Redshift.VERSIONED.equals(config.redshift.swap)) {
+      List<String> versions = versions(connection, table);
+      if (!versions.isEmpty()) return versions.get(0);
+    }
+    return table.name;
+  }
+
+  // applies the changed rows in each staging table to the live table, replacing the rows with
+  // the same primary key, and records the new watermark in the same transaction
+  public void mergeRedshiftTables(
+                                   List<Config.Table> tables,
+                                   Map<String, String> newWatermarks,
+                                   Map<String, String> newFingerprints) {
+    try (Connection connection = connectionPool.getConnection()) {
+      for (Config.Table table : tables) {
+        merge(connection, table, null);
+        saveWatermark(connection, table, newWatermarks.get(table.name));
+        saveFingerprint(connection, table, newFingerprints.get(table.name));
+        markPublished(connection, table);
         connection.commit();
       }
     } catch (SQLException e) {
@@ -94,8 +442,76 @@ public class Redshift {
     }
   }
 
+  // applies a batch of binlog changes staged with a deleted flag after the table's columns, along
+  // with the binlog position they go up to, all in one transaction
+  public void applyChanges(Collection<Config.Table> tables, String deletedColumn, BinlogPosition position) {
+    try (Connection connection = connectionPool.getConnection()) {
+      for (Config.Table table : tables) {
+        merge(connection, table, String.format("%s = 0", deletedColumn));
+      }
+      saveBinlogPosition(connection, position);
+      connection.commit();
+    } catch (SQLException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  // where binlog changes were last applied up to, null when they never were
+  public BinlogPosition getBinlogPosition() {
+    try (Connection connection = connectionPool.getConnection()) {
+      connection.createStatement().execute("create table if not exists euphrates_binlog_position (filename varchar(255), position bigint)");
+      BinlogPosition position = null;
+      try (ResultSet rs = connection.createStatement().executeQuery("select filename, position from euphrates_binlog_position")) {
+        if (rs.next()) position = new BinlogPosition(rs.getString(1), rs.getLong(2));
+      }
+      connection.commit();
+      return position;
+    } catch (SQLException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  public void saveBinlogPosition(BinlogPosition position) {
+    try (Connection connection = connectionPool.getConnection()) {
+      saveBinlogPosition(connection, position);
+      connection.commit();
+    } catch (SQLException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  // Daemon runs share one Redshift, so each run reads again what the runs before it saved, and
+  // gets a version of its own for versioned swaps.
+  public void startRun() {
+    runId = Math.max(runId + 1, System.currentTimeMillis() / 1000);
+    watermarks.clear();
+    populateWatermarks();
+    fingerprints.clear();
+    populateFingerprints();
+  }
+
+  // keeps what the run took, and estimates the next runs from it
+  public void finishRun() {
+    persistTableSizes();
+    persistHistory();
+    for (Map.Entry<String, Long> entry : newTableSizes.entrySet()) {
+      tableSizes.put(entry.getKey(), entry.getValue());
+    }
+    newTableSizes.clear();
+    runStats.clear();
+    estimates.clear();
+    populateHistory();
+  }
+
   public void shutdown() {
     persistTableSizes();
+    persistHistory();
+    versionDropper.shutdown();
+    try {
+      versionDropper.awaitTermination(10, TimeUnit.MINUTES);
+    } catch (InterruptedException e) {
+      // do nothing
+    }
     try {
       connectionPool.close();
     } catch (SQLException e) {
@@ -104,7 +520,8 @@ public class Redshift {
   }
 
   public void recordTableSize(String table, long secondsTook) {
-    newTableSizes.put(table, secondsTook);
+    // chunks of one table run concurrently, the slowest one is the time the table took
+    newTableSizes.merge(table, secondsTook, Math::max);
   }
 
   private void createRedshiftPool() {
@@ -138,6 +555,273 @@ public class Redshift {
     }
   }
 
+  // deletes the live rows that have a staged row with the same primary key, inserts the staged
+  // rows that match the filter, and drops the staging table
+  private void merge(Connection connection, Config.Table table, String filter) throws SQLException {
+    String live = String.format("%s.%s", config.redshift.schema, liveTable(connection, table));
+    String staging = String.format("%s.%s", config.redshift.schema, Util.tempTable(table));
+    String columns = String.join(", ", table.columns.keySet());
+    connection
+      .createStatement()
+      .execute(
+        String.format(
+          "delete from %s using %s where %s.%s = %s.%s",
+          live, staging, live, table.primaryKey, staging, table.primaryKey));
+    connection
+      .createStatement()
+      .execute(
+        String.format(
+          "insert into %s (%s) select %s from %s%s",
+          live, columns, columns, staging, filter == null ? "" : " where " + filter));
+    // emptied rather than dropped so the next run or batch can reuse it, truncate would commit
+    connection.createStatement().execute(String.format("delete from %s", staging));
+  }
+
+  private void saveBinlogPosition(Connection connection, BinlogPosition position) throws SQLException {
+    connection.createStatement().execute("create table if not exists euphrates_binlog_position (filename varchar(255), position bigint)");
+    connection.createStatement().execute("delete from euphrates_binlog_position");
+    PreparedStatement insertStatement = connection.prepareStatement("insert into euphrates_binlog_position (filename, position) values (?, ?)");
+    insertStatement.setString(1, position.getFilename());
+    insertStatement.setLong(2, position.getPosition());
+    insertStatement.execute();
+  }
+
+  private void populateWatermarks() {
+    try (Connection connection = connectionPool.getConnection()) {
+      connection.createStatement().execute("create table if not exists euphrates_table_watermarks (tablename varchar(255), watermark varchar(255))");
+      try (ResultSet rs = connection.createStatement().executeQuery("select tablename, watermark from euphrates_table_watermarks")) {
+        while (rs.next()) {
+          watermarks.put(rs.getString(1).toLowerCase(), rs.getString(2));
+        }
+        LOG.info(String.format("table watermarks are %s", watermarks));
+      }
+      connection.commit();
+    } catch (SQLException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private void populateFingerprints() {
+    try (Connection connection = connectionPool.getConnection()) {
+      connection.createStatement().execute("create table if not exists euphrates_table_fingerprints (tablename varchar(255), fingerprint varchar(1024))");
+      try (ResultSet rs = connection.createStatement().executeQuery("select tablename, fingerprint from euphrates_table_fingerprints")) {
+        while (rs.next()) {
+          fingerprints.put(rs.getString(1).toLowerCase(), rs.getString(2));
+        }
+      }
+      connection.commit();
+    } catch (SQLException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  // a table loaded without a fingerprint forgets the one it had, so it can't be skipped on a stale one
+  private void saveFingerprint(Connection connection, Config.Table table, String fingerprint) throws SQLException {
+    PreparedStatement deleteStatement = connection.prepareStatement("delete from euphrates_table_fingerprints where tablename = ?");
+    deleteStatement.setString(1, table.name);
+    deleteStatement.execute();
+    if (fingerprint == null) return;
+    PreparedStatement insertStatement = connection.prepareStatement("insert into euphrates_table_fingerprints (tablename, fingerprint) values (?, ?)");
+    insertStatement.setString(1, table.name);
+    insertStatement.setString(2, fingerprint);
+    insertStatement.execute();
+  }
+
+  // Forgets the plans of the tables, before their staging tables are made again, so a resumed
+  // run never trusts chunks of a staging table that is gone.
+  public synchronized void clearPlans(List<Config.Table> tables) {
+    try (Connection connection = connectionPool.getConnection()) {
+      createPlanTables(connection);
+      PreparedStatement deleteTables = connection.prepareStatement("delete from euphrates_run_tables where tablename = ?");
+      PreparedStatement deleteChunks = connection.prepareStatement("delete from euphrates_run_chunks where tablename = ?");
+      for (Config.Table table : tables) {
+        deleteTables.setString(1, table.name);
+        deleteTables.execute();
+        deleteChunks.setString(1, table.name);
+        deleteChunks.execute();
+      }
+      connection.commit();
+    } catch (SQLException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  public synchronized void savePlans(List<TablePlan> plans) {
+    try (Connection connection = connectionPool.getConnection()) {
+      createPlanTables(connection);
+      PreparedStatement insertTable =
+        connection.prepareStatement("insert into euphrates_run_tables (tablename, watermark, fingerprint, published) values (?, ?, ?, false)");
+      PreparedStatement insertChunk =
+        connection.prepareStatement("insert into euphrates_run_chunks (tablename, chunk, lower, upper, since, done) values (?, ?, ?, ?, ?, false)");
+      for (TablePlan plan : plans) {
+        insertTable.setString(1, plan.table.name);
+        insertTable.setString(2, plan.newWatermark);
+        insertTable.setString(3, plan.newFingerprint);
+        insertTable.execute();
+        for (int i = 0; i != plan.chunks.size(); i++) {
+          TableChunk chunk = plan.chunks.get(i);
+          insertChunk.setString(1, plan.table.name);
+          insertChunk.setInt(2, i);
+          insertChunk.setObject(3, chunk.lower, Types.BIGINT);
+          insertChunk.setObject(4, chunk.upper, Types.BIGINT);
+          insertChunk.setString(5, chunk.since);
+          insertChunk.addBatch();
+        }
+      }
+      insertChunk.executeBatch();
+      connection.commit();
+    } catch (SQLException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  // the plans saved by the last run of each table still in the config
+  public synchronized Map<String, TablePlan> loadPlans() {
+    Map<String, TablePlan> plans = new HashMap<>();
+    try (Connection connection = connectionPool.getConnection()) {
+      createPlanTables(connection);
+      Map<String, List<TableChunk>> chunks = new HashMap<>();
+      Map<String, List<Boolean>> done = new HashMap<>();
+      try (ResultSet rs = connection.createStatement().executeQuery(
+             "select tablename, lower, upper, since, done from euphrates_run_chunks order by tablename, chunk")) {
+        while (rs.next()) {
+          Config.Table table = replicator.tables.get(rs.getString(1));
+          if (table == null) continue;
+          Long lower = rs.getLong(2);
+          if (rs.wasNull()) lower = null;
+          Long upper = rs.getLong(3);
+          if (rs.wasNull()) upper = null;
+          chunks.computeIfAbsent(table.name, t -> new ArrayList<>()).add(new TableChunk(table, lower, upper, rs.getString(4)));
+          done.computeIfAbsent(table.name, t -> new ArrayList<>()).add(rs.getBoolean(5));
+        }
+      }
+      try (ResultSet rs = connection.createStatement().executeQuery(
+             "select tablename, watermark, fingerprint, published from euphrates_run_tables")) {
+        while (rs.next()) {
+          Config.Table table = replicator.tables.get(rs.getString(1));
+          if (table == null || !chunks.containsKey(table.name)) continue;
+          TablePlan plan = new TablePlan(table, rs.getString(2), rs.getString(3), chunks.get(table.name));
+          for (int i = 0; i != plan.done.length; i++) {
+            plan.done[i] = done.get(table.name).get(i);
+          }
+          plan.published = rs.getBoolean(4);
+          plans.put(table.name, plan);
+        }
+      }
+      connection.commit();
+    } catch (SQLException e) {
+      throw new RuntimeException(e);
+    }
+    return plans;
+  }
+
+  // Records a chunk whose segments are all copied into the staging table. Extraction workers
+  // finish chunks at the same time, and concurrent updates of one table can fail serialization in
+  // redshift, so they take turns.
+  public synchronized void checkpoint(TablePlan plan, TableChunk chunk) {
+    int index = plan.indexOf(chunk);
+    try (Connection connection = connectionPool.getConnection()) {
+      PreparedStatement statement = connection.prepareStatement("update euphrates_run_chunks set done = true where tablename = ? and chunk = ?");
+      statement.setString(1, plan.table.name);
+      statement.setInt(2, index);
+      statement.execute();
+      connection.commit();
+      plan.done[index] = true;
+    } catch (SQLException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private void createPlanTables(Connection connection) throws SQLException {
+    connection.createStatement().execute("create table if not exists euphrates_run_tables (tablename varchar(255), watermark varchar(255), fingerprint varchar(1024), published boolean)");
+    connection.createStatement().execute("create table if not exists euphrates_run_chunks (tablename varchar(255), chunk integer, lower bigint, upper bigint, since varchar(255), done boolean)");
+  }
+
+  // in the same transaction as the swap or merge, so a resumed run doesn't load the table twice
+  private void markPublished(Connection connection, Config.Table table) throws SQLException {
+    PreparedStatement statement = connection.prepareStatement("update euphrates_run_tables set published = true where tablename = ?");
+    statement.setString(1, table.name);
+    statement.execute();
+  }
+
+  private void saveWatermark(Connection connection, Config.Table table, String watermark) throws SQLException {
+    // an empty table has no watermark yet, so its next run is a full copy again
+    if (watermark == null) return;
+    PreparedStatement deleteStatement = connection.prepareStatement("delete from euphrates_table_watermarks where tablename = ?");
+    deleteStatement.setString(1, table.name);
+    deleteStatement.execute();
+    PreparedStatement insertStatement = connection.prepareStatement("insert into euphrates_table_watermarks (tablename, watermark) values (?, ?)");
+    insertStatement.setString(1, table.name);
+    insertStatement.setString(2, watermark);
+    insertStatement.execute();
+  }
+
+  private void populateHistory() {
+    try (Connection connection = connectionPool.getConnection()) {
+      connection.createStatement().execute(
+        "create table if not exists euphrates_table_history (tablename varchar(255), run_at timestamp, rows bigint, raw_bytes bigint, "
+          + "compressed_bytes bigint, extract_seconds float8, encode_seconds float8, upload_seconds float8, copy_seconds float8, copies int)");
+      String query =
+        "select tablename, rows, raw_bytes, compressed_bytes, extract_seconds, encode_seconds, upload_seconds, copy_seconds, copies "
+          + "from (select *, row_number() over (partition by tablename order by run_at desc) as recent from euphrates_table_history) "
+          + String.format("where recent <= %s order by run_at", HISTORY_RUNS);
+      try (ResultSet rs = connection.createStatement().executeQuery(query)) {
+        while (rs.next()) {
+          TableEstimate run =
+            new TableEstimate(
+              rs.getLong(2), rs.getLong(3), rs.getLong(4), rs.getDouble(5), rs.getDouble(6), rs.getDouble(7), rs.getDouble(8), rs.getInt(9));
+          // the oldest run starts the average
+          estimates.merge(rs.getString(1).toLowerCase(), run, TableEstimate::next);
+        }
+      }
+      LOG.info(String.format("table estimates are %s", estimates));
+      connection.commit();
+    } catch (SQLException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private void persistHistory() {
+    try (Connection connection = connectionPool.getConnection()) {
+      PreparedStatement insertStatement =
+        connection.prepareStatement(
+          "insert into euphrates_table_history (tablename, run_at, rows, raw_bytes, compressed_bytes, extract_seconds, "
+            + "encode_seconds, upload_seconds, copy_seconds, copies) values (?, getdate(), ?, ?, ?, ?, ?, ?, ?, ?)");
+      for (Map.Entry<String, TableStats> entry : runStats.entrySet()) {
+        if (!entry.getValue().wasExtracted()) continue;
+        TableEstimate run = entry.getValue().toEstimate();
+        LOG.info(String.format("%s took %s", entry.getKey(), run));
+        insertStatement.setString(1, entry.getKey());
+        insertStatement.setLong(2, (long) run.rows);
+        insertStatement.setLong(3, (long) run.rawBytes);
+        insertStatement.setLong(4, (long) run.compressedBytes);
+        insertStatement.setDouble(5, run.extractSeconds);
+        insertStatement.setDouble(6, run.encodeSeconds);
+        insertStatement.setDouble(7, run.uploadSeconds);
+        insertStatement.setDouble(8, run.copySeconds);
+        insertStatement.setInt(9, (int) run.copies);
+        insertStatement.execute();
+      }
+      connection.commit();
+    } catch (SQLException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private void populateSliceCount() {
+    try (Connection connection = connectionPool.getConnection()) {
+      try (ResultSet rs = connection.createStatement().executeQuery("select count(*) from stv_slices")) {
+        rs.next();
+        // never divide files by zero slices, whatever the system table says
+        sliceCount = Math.max(1, rs.getInt(1));
+        LOG.info(String.format("cluster has %s slices", sliceCount));
+      }
+      connection.commit();
+    } catch (SQLException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
   private void persistTableSizes() {
     try {
       try (Connection connection = connectionPool.getConnection()) {
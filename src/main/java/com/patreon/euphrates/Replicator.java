@@ -4,10 +4,10 @@ import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.LogManager;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
+import java.util.Map;
 import java.util.stream.Collectors;
 
 public class Replicator {
@@ -17,11 +17,20 @@ public class Replicator {
   Config config;
   S3Writer s3Writer;
   Redshift redshift;
+  Mysql mysql;
+  Map<String, Config.Table> tables;
+  // where the binlog was at when the last consistent snapshot was taken
+  BinlogPosition snapshotPosition = null;
+  // what the current run copies of each table
+  Map<String, TablePlan> plans = new HashMap<>();
 
   public Replicator(Config config) {
     this.config = config;
-    this.s3Writer = new S3Writer(this);
+    this.tables = config.tables.stream().collect(Collectors.toMap(t -> t.name, t -> t));
+    // the copy workers of the s3 writer size manifests by the cluster's slices
     this.redshift = new Redshift(this);
+    this.s3Writer = new S3Writer(this);
+    this.mysql = new Mysql(this);
   }
 
   public Config getConfig() {
@@ -36,71 +45,203 @@ public class Replicator {
     return redshift;
   }
 
+  public Mysql getMysql() {
+    return mysql;
+  }
+
+  public BinlogPosition getSnapshotPosition() {
+    return snapshotPosition;
+  }
+
   public void start() {
-    doFullDump();
+    run(config.tables, false);
+  }
+
+  // continues the last run, which failed, without copying again what it already committed
+  public void resume() {
+    run(config.tables, true);
+  }
+
+  // Copies the given tables, again and again on the same pools in daemon mode. A failure on the
+  // calling thread is thrown, so the daemon can try again, after recover.
+  public void run(List<Config.Table> runTables, boolean resume) {
+    redshift.startRun();
+    doFullDump(runTables, resume);
+    s3Writer.finishRun();
+    redshift.finishRun();
+  }
+
+  // waits for what a failed run left uploading and copying, so it can't land in the staging
+  // tables of the next one
+  public void recover() {
+    s3Writer.awaitIdle();
   }
 
   public void shutdown() {
     s3Writer.shutdown();
     redshift.shutdown();
+    mysql.shutdown();
   }
 
   public Config.Table getTable(String tablename) {
-    return config.tables.stream()
-             .filter(t -> t.name.equals(tablename))
-             .findFirst()
-             .get();
+    Config.Table table = tables.get(tablename);
+    if (table == null) throw new java.util.NoSuchElementException(tablename);
+    return table;
   }
 
-  private void doFullDump() {
-    ExecutorService threadPoolExecutor = Executors.newFixedThreadPool(config.mysql.maxConnections);
-
-    // create list of lists
-    List<TableGroup> groups = new ArrayList<>();
-    for (int i = 0; i != config.mysql.maxConnections; i++) {
-      groups.add(new TableGroup());
+  // Copies the tables, or with resume continues the last run of them where it stopped. Tables the
+  // last run published aren't copied again, the ones whose staging table is still there only copy
+  // the chunks that weren't committed to it yet, and the rest are planned anew.
+  private void doFullDump(List<Config.Table> runTables, boolean resume) {
+    if (config.mysql.consistentSnapshot && !"jdbc".equals(config.mysql.extractor)) {
+      throw new IllegalArgumentException("a consistent snapshot needs the jdbc extractor");
     }
 
-    // populate lists by using sizes
-    config.tables.stream()
-      .sorted((t1, t2) -> getTableSize(t2).compareTo(getTableSize(t1)))
-      .forEach(t -> {
-        TableGroup smallestGroup = groups.stream()
-                                     .sorted((g1, g2) -> g1.getSizeInMb().compareTo(g2.getSizeInMb()))
-                                     .findFirst()
-                                     .get();
-        smallestGroup.add(t.name);
-        smallestGroup.incrementSizeInMb(getTableSize(t));
-      });
-
-    LOG.debug(String.format("Groups are %s", groups));
+    List<TablePlan> resumed = new ArrayList<>();
+    List<Config.Table> unplanned = new ArrayList<>();
+    if (resume) {
+      Map<String, TablePlan> saved = redshift.loadPlans();
+      List<String> published = new ArrayList<>();
+      for (Config.Table table : runTables) {
+        TablePlan plan = saved.get(table.name);
+        if (plan != null && plan.published) {
+          published.add(table.name);
+        } else if (plan != null && redshift.stagingTableExists(table)) {
+          resumed.add(plan);
+        } else {
+          unplanned.add(table);
+        }
+      }
+      LOG.info(String.format("resuming %s, already published %s", resumed, published));
+      if (config.mysql.consistentSnapshot && !resumed.isEmpty()) {
+        LOG.warn("resumed tables aren't consistent with the snapshot of the rest");
+      }
+    } else {
+      unplanned.addAll(runTables);
+    }
 
+    MysqlSnapshot snapshot = null;
     try {
-      // create a table copier per group
-      List<Future> futures = groups.stream()
-                               .map(group -> threadPoolExecutor.submit(new TableCopier(this, config.mysql, group)))
-                               .collect(Collectors.toList());
-      futures.stream()
-        .forEach(f -> {
-          try {
-            f.get();
-          } catch (java.util.concurrent.ExecutionException ee) {
-            throw new RuntimeException(ee);
-          } catch (InterruptedException ie) {
-            // do nothing
+      // a partly copied chunk is copied again from the start
+      List<Schema> schemas = new ArrayList<>();
+      for (TablePlan plan : resumed) {
+        for (TableChunk chunk : plan.pending()) {
+          if (chunk.isWholeTable()) {
+            schemas.add(new Schema(config.redshift.schema, plan.table));
+          } else {
+            redshift.clearStaged(chunk);
           }
-        });
+        }
+      }
+
+      // staging tables are shared by every chunk of a table, so create them before any copier
+      // starts, and only save the plans once they are there
+      redshift.clearPlans(unplanned);
+      List<TablePlan> planned = plan(unplanned);
+      for (TablePlan plan : planned) {
+        Schema schema = new Schema(config.redshift.schema, plan.table);
+        LOG.debug(String.format("schema is %s", schema.generate()));
+        schemas.add(schema);
+      }
+      redshift.prepareStagingTables(schemas);
+      redshift.savePlans(planned);
+      LOG.info("Done generating schemas");
+
+      List<TablePlan> plans = new ArrayList<>(resumed);
+      plans.addAll(planned);
+      this.plans = plans.stream().collect(Collectors.toMap(p -> p.table.name, p -> p));
+      List<TableChunk> chunks = plans.stream().flatMap(p -> p.pending().stream()).collect(Collectors.toList());
+
+      // taken last, so no transaction is held open while the staging tables are made
+      if (config.mysql.consistentSnapshot) {
+        snapshot = mysql.openSnapshot(config.mysql.maxConnections);
+        snapshotPosition = snapshot.getPosition();
+      }
+
+      new TableScheduler(this, chunks).run(config.mysql.maxConnections, snapshot);
+
+      // the snapshot transactions aren't needed for the swap
+      if (snapshot != null) {
+        snapshot.close();
+        snapshot = null;
+      }
+      Map<String, String> newWatermarks = new HashMap<>();
+      Map<String, String> newFingerprints = new HashMap<>();
+      for (TablePlan plan : plans) {
+        if (plan.newWatermark != null) newWatermarks.put(plan.table.name, plan.newWatermark);
+        if (plan.newFingerprint != null) newFingerprints.put(plan.table.name, plan.newFingerprint);
+      }
+      Map<Boolean, List<Config.Table>> incremental = plans.stream()
+                                                       .collect(Collectors.partitioningBy(
+                                                         TablePlan::isIncremental,
+                                                         Collectors.mapping(TablePlan::getTable, Collectors.toList())));
       LOG.info("Swaping redshift tables");
-      redshift.swapRedshiftTables();
+      redshift.swapRedshiftTables(incremental.get(false), newWatermarks, newFingerprints);
       LOG.info("Done swaping redshift tables");
+      LOG.info("Merging changes into redshift tables");
+      redshift.mergeRedshiftTables(incremental.get(true), newWatermarks, newFingerprints);
+      LOG.info("Done merging changes into redshift tables");
+      redshift.clearPlans(runTables);
     } catch (Exception e) {
-      App.fatal(e);
+      throw new RuntimeException(e);
     } finally {
-      threadPoolExecutor.shutdownNow();
+      if (snapshot != null) snapshot.close();
     }
   }
 
-  private Long getTableSize(Config.Table table) {
-    return redshift.getTableSize(table.name);
+  // records that every segment of the chunk is in its staging table
+  void chunkCopied(TableChunk chunk) {
+    redshift.checkpoint(plans.get(chunk.getTable().name), chunk);
+  }
+
+  // what each table needs copied, leaving out the tables that haven't changed
+  private List<TablePlan> plan(List<Config.Table> planTables) {
+    // A table that is unchanged since it was last loaded keeps its live table as it is. Fingerprints
+    // are taken before anything is extracted, like the watermarks, so a table changed during the
+    // copy has a different one next run.
+    Map<String, String> newFingerprints = new HashMap<>();
+    List<Config.Table> copied = new ArrayList<>();
+    List<String> unchanged = new ArrayList<>();
+    for (Config.Table table : planTables) {
+      if (table.fingerprint != null) {
+        String fingerprint = mysql.fingerprint(table);
+        if (fingerprint != null
+              && fingerprint.equals(redshift.getFingerprint(table.name))
+              && redshift.tableExists(table)) {
+          unchanged.add(table.name);
+          continue;
+        }
+        if (fingerprint != null) newFingerprints.put(table.name, fingerprint);
+      }
+      copied.add(table);
+    }
+    LOG.info(String.format("skipping unchanged %s", unchanged));
+
+    // watermarks are read before anything is extracted, so rows changed during the copy are
+    // picked up again by the next run rather than missed
+    Map<String, String> newWatermarks = new HashMap<>();
+    Map<String, String> changedSince = new HashMap<>();
+    for (Config.Table table : copied) {
+      if (table.watermark == null) continue;
+      if (table.primaryKey == null) {
+        throw new IllegalArgumentException(String.format("%s has a watermark but no primary key", table.name));
+      }
+      String watermark = mysql.maxWatermark(table);
+      if (watermark != null) newWatermarks.put(table.name, watermark);
+      String lastWatermark = redshift.getWatermark(table.name);
+      if (lastWatermark != null && redshift.tableExists(table)) changedSince.put(table.name, lastWatermark);
+    }
+    LOG.info(String.format("copying changes only for %s", changedSince));
+
+    // split chunked tables into primary key ranges, so they spread over several workers
+    return copied.stream()
+             .map(t -> new TablePlan(
+                         t,
+                         newWatermarks.get(t.name),
+                         newFingerprints.get(t.name),
+                         changedSince.containsKey(t.name)
+                           ? Collections.singletonList(TableChunk.changedSince(t, changedSince.get(t.name)))
+                           : mysql.chunk(t)))
+             .collect(Collectors.toList());
   }
 }
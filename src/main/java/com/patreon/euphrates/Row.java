@@ -0,0 +1,92 @@
+package com.patreon.euphrates;
+
+// A reusable row of values. Each slot owns a char buffer that grows as needed and is kept
+// between rows, so filling in a row doesn't allocate once the buffers are warm.
+public class Row {
+
+  private static final int INITIAL_VALUE_SIZE = 64;
+
+  char[][] values;
+  // -1 marks a null value
+  int[] lengths;
+
+  public Row(int size) {
+    values = new char[size][];
+    lengths = new int[size];
+    for (int i = 0; i != size; i++) {
+      values[i] = new char[INITIAL_VALUE_SIZE];
+    }
+    clear();
+  }
+
+  public int size() {
+    return lengths.length;
+  }
+
+  public void clear() {
+    for (int i = 0; i != lengths.length; i++) {
+      lengths[i] = -1;
+    }
+  }
+
+  public void append(int index, char[] chars, int start, int length) {
+    int current = Math.max(lengths[index], 0);
+    ensureCapacity(index, current + length);
+    System.arraycopy(chars, start, values[index], current, length);
+    lengths[index] = current + length;
+  }
+
+  public void set(int index, String value) {
+    if (value == null) {
+      lengths[index] = -1;
+      return;
+    }
+    ensureCapacity(index, value.length());
+    value.getChars(0, value.length(), values[index], 0);
+    lengths[index] = value.length();
+  }
+
+  public void copyFrom(Row other) {
+    for (int i = 0; i != lengths.length; i++) {
+      if (other.isNull(i)) {
+        lengths[i] = -1;
+      } else {
+        ensureCapacity(i, other.length(i));
+        System.arraycopy(other.chars(i), 0, values[i], 0, other.length(i));
+        lengths[i] = other.length(i);
+      }
+    }
+  }
+
+  public boolean isNull(int index) {
+    return lengths[index] == -1;
+  }
+
+  public char[] chars(int index) {
+    return values[index];
+  }
+
+  public int length(int index) {
+    return lengths[index];
+  }
+
+  public String get(int index) {
+    return isNull(index) ? null : new String(values[index], 0, lengths[index]);
+  }
+
+  // approximates the size of the row as text, counting nulls as the 4 chars of "null"
+  public int textSize() {
+    int size = 0;
+    for (int length : lengths) {
+      size += length == -1 ? 4 : length;
+    }
+    return size;
+  }
+
+  private void ensureCapacity(int index, int capacity) {
+    if (values[index].length >= capacity) return;
+    char[] grown = new char[Math.max(capacity, values[index].length * 2)];
+    System.arraycopy(values[index], 0, grown, 0, Math.max(lengths[index], 0));
+    values[index] = grown;
+  }
+}
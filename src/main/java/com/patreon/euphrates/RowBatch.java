@@ -0,0 +1,33 @@
+package com.patreon.euphrates;
+
+// A slot of the EncoderPool ring, the rows are kept and refilled every time the batch comes around.
+class RowBatch {
+
+  Row[] rows;
+  int size = 0;
+  Config.Table table = null;
+
+  RowBatch(int capacity) {
+    rows = new Row[capacity];
+  }
+
+  boolean isFull() {
+    return size == rows.length;
+  }
+
+  void add(Config.Table table, Row row) {
+    this.table = table;
+    Row slot = rows[size];
+    if (slot == null || slot.size() != row.size()) {
+      slot = new Row(row.size());
+      rows[size] = slot;
+    }
+    slot.copyFrom(row);
+    size++;
+  }
+
+  void clear() {
+    size = 0;
+    table = null;
+  }
+}
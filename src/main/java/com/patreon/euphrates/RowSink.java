@@ -0,0 +1,15 @@
+package com.patreon.euphrates;
+
+// Receives the tables and rows produced by an extraction.
+public interface RowSink {
+
+  void start(Config.Table table);
+
+  // the row may be reused by the caller as soon as this returns
+  void add(Row row);
+
+  void end();
+
+  // blocks until everything added has been handled, called by the owner once it is done with the sink
+  void flush();
+}
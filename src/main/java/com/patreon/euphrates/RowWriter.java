@@ -0,0 +1,75 @@
+package com.patreon.euphrates;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+// Writes rows of a segment as utf8 bytes straight from the row's char buffers, through a buffer
+// of its own so nothing is allocated per row.
+public abstract class RowWriter {
+
+  private static final int BUFFER_SIZE = 65_536;
+
+  OutputStream out;
+  byte[] buffer = new byte[BUFFER_SIZE];
+  int position = 0;
+
+  protected RowWriter(OutputStream out) {
+    this.out = out;
+  }
+
+  // the segment format the rows are written in, as set in the s3 config
+  public static RowWriter forFormat(String format, OutputStream out) {
+    switch (format) {
+      case Config.S3.JSON:
+        return new JsonRowWriter(out);
+      case Config.S3.DELIMITED:
+        return new DelimitedRowWriter(out);
+      default:
+        throw new IllegalArgumentException(String.format("unknown segment format %s", format));
+    }
+  }
+
+  public abstract void write(Row row) throws IOException;
+
+  public void flush() throws IOException {
+    out.write(buffer, 0, position);
+    position = 0;
+    out.flush();
+  }
+
+  public void close() throws IOException {
+    flush();
+    out.close();
+  }
+
+  // encodes the char at index i, which is at least 0x80, and returns the index of the last char
+  // it used, the low half of a surrogate pair being used along with the high half. Callers make
+  // room for 4 bytes first.
+  protected int writeNonAscii(char[] chars, int i, int length) {
+    char c = chars[i];
+    if (c < 0x800) {
+      buffer[position++] = (byte) (0xc0 | (c >> 6));
+      buffer[position++] = (byte) (0x80 | (c & 0x3f));
+    } else if (Character.isHighSurrogate(c) && i + 1 != length && Character.isLowSurrogate(chars[i + 1])) {
+      int codePoint = Character.toCodePoint(c, chars[++i]);
+      buffer[position++] = (byte) (0xf0 | (codePoint >> 18));
+      buffer[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+      buffer[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+      buffer[position++] = (byte) (0x80 | (codePoint & 0x3f));
+    } else if (Character.isSurrogate(c)) {
+      // an unpaired surrogate can't be encoded, a utf8 writer replaces it the same way
+      buffer[position++] = '?';
+    } else {
+      buffer[position++] = (byte) (0xe0 | (c >> 12));
+      buffer[position++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+      buffer[position++] = (byte) (0x80 | (c & 0x3f));
+    }
+    return i;
+  }
+
+  protected void ensureCapacity(int bytes) throws IOException {
+    if (position + bytes <= buffer.length) return;
+    out.write(buffer, 0, position);
+    position = 0;
+  }
+}
@@ -0,0 +1,107 @@
+package com.patreon.euphrates;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.DeleteObjectsRequest;
+import com.amazonaws.services.s3.model.MultiObjectDeleteException;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.LogManager;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+// Deletes segments and manifests once they are copied, off the copy workers so their redshift
+// connections go straight on to the next copy. Keys are deleted in batches of up to a thousand,
+// the most a single request takes, as they come in, all at once when the run ends, or never when
+// a lifecycle rule of the bucket expires them instead.
+class S3Cleaner {
+
+  private static final Logger LOG = LogManager.getLogger(S3Cleaner.class);
+  public static final String IMMEDIATE = "immediate";
+  public static final String END = "end";
+  public static final String LIFECYCLE = "lifecycle";
+  private static final int BATCH_SIZE = 1000;
+  // how long a batch waits to fill up before it is deleted anyway
+  private static final long BATCH_WAIT_MILLIS = 1000;
+
+  AmazonS3 client;
+  String bucket;
+  String mode;
+  LinkedBlockingQueue<String> keys = new LinkedBlockingQueue<>();
+  ExecutorService deleter;
+  volatile boolean closed = false;
+
+  S3Cleaner(AmazonS3 client, String bucket, String mode) {
+    this.client = client;
+    this.bucket = bucket;
+    this.mode = mode;
+    if (IMMEDIATE.equals(mode)) {
+      deleter = Executors.newSingleThreadExecutor();
+      deleter.submit(this::run);
+    } else if (!END.equals(mode) && !LIFECYCLE.equals(mode)) {
+      throw new IllegalArgumentException(String.format("unknown cleanup %s", mode));
+    }
+  }
+
+  void delete(String key) {
+    if (!LIFECYCLE.equals(mode)) keys.add(key);
+  }
+
+  // deletes whatever is left, waiting for it
+  void close() {
+    closed = true;
+    if (deleter != null) {
+      deleter.shutdown();
+      try {
+        deleter.awaitTermination(1, TimeUnit.MINUTES);
+      } catch (InterruptedException e) {
+        // do nothing
+      }
+    }
+    flush();
+  }
+
+  // deletes what has been handed over so far, such as at the end of each daemon run
+  void flush() {
+    if (LIFECYCLE.equals(mode)) return;
+    List<String> batch = new ArrayList<>();
+    while (keys.drainTo(batch, BATCH_SIZE) > 0) {
+      deleteBatch(batch);
+      batch.clear();
+    }
+  }
+
+  private void run() {
+    List<String> batch = new ArrayList<>();
+    try {
+      while (!closed || !keys.isEmpty()) {
+        String key = keys.poll(BATCH_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+        if (key != null) batch.add(key);
+        keys.drainTo(batch, BATCH_SIZE - batch.size());
+        // a partial batch waits for more unless nothing came in for a while
+        if (batch.size() == BATCH_SIZE || (key == null && !batch.isEmpty())) {
+          deleteBatch(batch);
+          batch.clear();
+        }
+      }
+    } catch (InterruptedException e) {
+      // do nothing
+    }
+    keys.addAll(batch);
+  }
+
+  // leftovers cost a little storage and the data is already loaded, so failures don't stop the run
+  private void deleteBatch(List<String> batch) {
+    try {
+      client.deleteObjects(new DeleteObjectsRequest(bucket).withKeys(batch.toArray(new String[0])).withQuiet(true));
+      LOG.debug(String.format("deleted %s objects", batch.size()));
+    } catch (MultiObjectDeleteException e) {
+      LOG.error(String.format("failed deleting %s of %s objects, %s", e.getErrors().size(), batch.size(), e.getMessage()));
+    } catch (Exception e) {
+      LOG.error(String.format("failed deleting %s objects, %s", batch.size(), e));
+    }
+  }
+}
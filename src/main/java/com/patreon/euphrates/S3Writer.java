@@ -2,59 +2,118 @@ package com.patreon.euphrates;
 
 import com.amazonaws.services.s3.AmazonS3;
 import com.amazonaws.services.s3.AmazonS3ClientBuilder;
-import com.amazonaws.services.s3.model.DeleteObjectRequest;
+import com.amazonaws.services.s3.iterable.S3Objects;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import javafixes.concurrency.ReusableCountLatch;
 import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.LogManager;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
-import java.io.OutputStreamWriter;
-import java.io.Writer;
+import java.io.OutputStream;
 import java.util.*;
 import java.util.concurrent.*;
-import java.util.concurrent.locks.ReentrantLock;
 import java.util.zip.GZIPOutputStream;
 
 public class S3Writer {
 
   private static final Logger LOG = LogManager.getLogger(S3Writer.class);
   private static final int TABLE_QUEUE_SIZE = 40000;
+  private static final int SEGMENT_BUFFER_SIZE = 65_536;
+  // upload threads to start with, and how often the tuner looks at their throughput
+  private static final int INITIAL_UPLOADS = 8;
+  private static final long UPLOAD_TUNING_SECONDS = 10;
+  // thread safe once configured, and recycles its encoding buffers per thread
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+  static final Metrics.Histogram PUT_SECONDS =
+    Metrics.histogram("euphrates_s3_put_seconds", "Time taken by each put of a segment or part to s3");
   AmazonS3 client;
   Replicator replicator;
   ThreadPoolExecutor uploader;
+  UploadTuner uploadTuner;
+  ScheduledExecutorService tuning;
+  // finished segment files not yet uploaded
+  ByteBudget uploadBudget;
+  // only used when segments are streamed to s3
+  ExecutorService partUploader;
+  BufferPool partBuffers;
   ExecutorService copier;
-  ConcurrentHashMap<String, BlockingQueue<CopyJob>> copyQueues = new ConcurrentHashMap<>();
-  ConcurrentHashMap<String, ReentrantLock> tableCopyLocks = new ConcurrentHashMap<>();
-  int queueSum;
+  CopyDispatcher<CopyJob> copyDispatcher;
+  S3Cleaner cleaner;
 
   public S3Writer(Replicator replicator) {
     this.replicator = replicator;
     this.client =
       AmazonS3ClientBuilder.standard().withRegion(replicator.getConfig().s3.region).build();
     this.copier = Executors.newFixedThreadPool(replicator.getConfig().redshift.maxConnections);
+    this.cleaner = new S3Cleaner(client, replicator.getConfig().s3.bucket, replicator.getConfig().s3.cleanup);
     int queueSize = TABLE_QUEUE_SIZE / replicator.getConfig().tables.size();
-    queueSum = queueSize * replicator.getConfig().tables.size();
+    List<String> tableNames = new ArrayList<>();
 
     for (Config.Table table : replicator.getConfig().tables) {
-      copyQueues.put(table.name, new LinkedBlockingQueue<>(queueSize));
-
-      // We only allow 1 copy worker at a time to be copying to a given table, so we maintain this mapping.
-      tableCopyLocks.put(table.name, new ReentrantLock());
-      uploadFormat(table);
+      tableNames.add(table.name);
     }
 
+    // only one worker at a time copies to a given table
+    this.copyDispatcher = new CopyDispatcher<>(tableNames, queueSize);
+    CopyBatchPolicy batchPolicy =
+      new CopyBatchPolicy(replicator.getConfig().redshift, replicator.getRedshift().getSliceCount());
     for (int i = 0; i != replicator.getConfig().redshift.maxConnections; i++) {
-      this.copier.submit(new CopyWorker(this, copyQueues, tableCopyLocks));
+      this.copier.submit(new CopyWorker(this, copyDispatcher, batchPolicy));
     }
+    // the queue is unbounded, the upload budget bounds what waits in it instead of rejecting uploads
+    Config.S3 s3 = replicator.getConfig().s3;
     this.uploader =
-      new ThreadPoolExecutor(1, 100, 30L, TimeUnit.SECONDS, new ArrayBlockingQueue<>(20));
+      new ThreadPoolExecutor(
+        Math.min(INITIAL_UPLOADS, s3.maxUploads), s3.maxUploads, 30L, TimeUnit.SECONDS, new LinkedBlockingQueue<>());
+    this.uploadBudget = new ByteBudget(s3.uploadBudget);
+    this.uploadTuner = new UploadTuner(uploader, 1, s3.maxUploads);
+    this.tuning = Executors.newSingleThreadScheduledExecutor();
+    // streamed segments are sent by the part uploader, and the upload threads only wait on their
+    // parts to complete them, so their count has nothing to do with the throughput
+    if (!s3.streamingUpload) {
+      tuning.scheduleWithFixedDelay(uploadTuner, UPLOAD_TUNING_SECONDS, UPLOAD_TUNING_SECONDS, TimeUnit.SECONDS);
+    }
+    // delimited segments load by column order and need no jsonpaths
+    if (Config.S3.JSON.equals(s3.format)) uploadFormats();
+    if (s3.streamingUpload) {
+      this.partBuffers = new BufferPool(s3.partSize, s3.partBuffers);
+      // a part can only be uploaded while it holds a buffer, so more threads would sit idle
+      this.partUploader = Executors.newFixedThreadPool(s3.partBuffers);
+    }
+
+    Metrics.gauge("euphrates_s3_uploads_active", "Segment uploads in progress", () -> uploader.getActiveCount());
+    Metrics.gauge("euphrates_s3_uploads_queued", "Segment uploads waiting for a thread", () -> uploader.getQueue().size());
+    Metrics.gauge("euphrates_s3_upload_threads", "Threads of the segment uploader", () -> uploader.getPoolSize());
+    Metrics.gauge("euphrates_s3_upload_budget_used_bytes", "Bytes of finished segments waiting for their upload", uploadBudget::getUsed);
+    Metrics.gauge("euphrates_copy_queue_depth", "Uploaded segments waiting to be copied", copyDispatcher::getPendingCount);
+  }
+
+  // the end of a run that leaves the writer running for the next
+  public void finishRun() {
+    cleaner.flush();
+  }
+
+  // waits until every queued segment is uploaded and copied, once extraction stopped
+  public void awaitIdle() {
+    try {
+      while (uploader.getActiveCount() != 0 || !uploader.getQueue().isEmpty() || !copyDispatcher.isIdle()) {
+        Thread.sleep(1000);
+      }
+    } catch (InterruptedException e) {
+      // do nothing
+    }
+    copyDispatcher.resetStreams();
   }
 
   public void shutdown() {
+    cleaner.close();
+    tuning.shutdownNow();
     uploader.shutdownNow();
+    if (partUploader != null) partUploader.shutdownNow();
     copier.shutdownNow();
   }
 
@@ -62,16 +121,30 @@ public class S3Writer {
     return new RowEnqueuer(this, table, finished);
   }
 
+  // waits while the table already has a full queue of segments waiting to be copied
   protected void enqueueKey(Config.Table table, String key, ReusableCountLatch finished) {
-    CopyJob job = new CopyJob(table, key, finished);
-    this.copyQueues.get(table.name).add(job);
+    try {
+      copyDispatcher.put(table.name, new CopyJob(table, key, finished));
+    } catch (InterruptedException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  // an extraction of the table started or ended, copies don't wait for more segments once none is open
+  protected void openStream(Config.Table table) {
+    copyDispatcher.openStream(table.name);
+  }
+
+  protected void closeStream(Config.Table table) {
+    copyDispatcher.closeStream(table.name);
+  }
+
+  protected S3Cleaner getCleaner() {
+    return cleaner;
   }
 
-  protected int getCopyQueueSum() {
-    return queueSum - Collections.list(copyQueues.elements())
-             .stream()
-             .mapToInt(v -> v.remainingCapacity())
-             .sum();
+  protected CopyDispatcher<CopyJob> getCopyDispatcher() {
+    return copyDispatcher;
   }
 
   protected Replicator getReplicator() {
@@ -86,7 +159,56 @@ public class S3Writer {
     return uploader;
   }
 
-  private void uploadFormat(Config.Table table) {
+  protected ExecutorService getPartUploader() {
+    return partUploader;
+  }
+
+  protected ByteBudget getUploadBudget() {
+    return uploadBudget;
+  }
+
+  protected UploadTuner getUploadTuner() {
+    return uploadTuner;
+  }
+
+  protected BufferPool getPartBuffers() {
+    return partBuffers;
+  }
+
+  protected String newSegmentKey(Config.Table table) {
+    String extension = Config.S3.JSON.equals(replicator.getConfig().s3.format) ? "json" : "txt";
+    return String.format("%s/%s.%s.gz", table.name, UUID.randomUUID().toString(), extension);
+  }
+
+  // Uploads the jsonpaths of every table on the upload threads, all at once, leaving out the ones
+  // s3 already has as they are. Their etags, listed in one go, are the md5 of what was put.
+  private void uploadFormats() {
+    String bucket = replicator.getConfig().s3.bucket;
+    Map<String, String> etags = new HashMap<>();
+    for (S3ObjectSummary summary : S3Objects.withPrefix(client, bucket, Util.FORMAT_PREFIX)) {
+      etags.put(summary.getKey(), summary.getETag().replace("\"", ""));
+    }
+    List<Future<?>> uploads = new ArrayList<>();
+    for (Config.Table table : replicator.getConfig().tables) {
+      String jsonpaths = jsonpaths(table);
+      String formatPath = Util.formatKey(table);
+      if (Util.md5Hex(jsonpaths).equals(etags.get(formatPath))) continue;
+      uploads.add(uploader.submit(() -> client.putObject(bucket, formatPath, jsonpaths)));
+    }
+    try {
+      for (Future<?> upload : uploads) {
+        upload.get();
+      }
+    } catch (ExecutionException | InterruptedException e) {
+      throw new RuntimeException(e);
+    }
+    LOG.info(
+      String.format(
+        "uploaded jsonpaths of %s tables, %s were unchanged",
+        uploads.size(), replicator.getConfig().tables.size() - uploads.size()));
+  }
+
+  private String jsonpaths(Config.Table table) {
     try {
       int position = 0;
       Map<String, List<String>> jsonpaths = new HashMap<>();
@@ -96,11 +218,8 @@ public class S3Writer {
         paths.add(String.format("$[%s]", position));
         position++;
       }
-      String formatPath = Util.formatKey(table);
-      ObjectMapper mapper = new ObjectMapper();
-      client.putObject(
-        replicator.getConfig().s3.bucket, formatPath, mapper.writeValueAsString(jsonpaths));
-    } catch (Exception e) {
+      return MAPPER.writeValueAsString(jsonpaths);
+    } catch (JsonProcessingException e) {
       throw new RuntimeException(e);
     }
   }
@@ -133,41 +252,64 @@ public class S3Writer {
     S3Writer writer;
     Config.Table table;
     ReusableCountLatch finished;
+    boolean streaming;
     File file;
-    Writer fileWriter;
-    ObjectMapper mapper;
+    CountingOutputStream compressed;
+    RowWriter rowWriter;
 
     RowEnqueuer(S3Writer writer, Config.Table table, ReusableCountLatch finished) {
       this.writer = writer;
       this.table = table;
       this.finished = finished;
+      this.streaming = writer.getReplicator().getConfig().s3.streamingUpload;
+      writer.getCopyDispatcher().segmentStarted(table.name);
 
       try {
-        String id = UUID.randomUUID().toString();
-        file = new File("/tmp/" + id + ".json.gz");
-        mapper = new ObjectMapper();
-        fileWriter =
-            new OutputStreamWriter(new GZIPOutputStream(new FileOutputStream(file)), "UTF-8");
-        file.deleteOnExit();
+        OutputStream out;
+        if (streaming) {
+          String key = writer.newSegmentKey(table);
+          out =
+            new MultipartUploadStream(
+              writer, key, writer.getReplicator().getRedshift().getStats(table.name), () -> writer.enqueueKey(table, key, finished));
+        } else {
+          file = new File("/tmp/" + UUID.randomUUID().toString() + ".gz");
+          file.deleteOnExit();
+          out = new FileOutputStream(file);
+        }
+        compressed = new CountingOutputStream(new BufferedOutputStream(out, SEGMENT_BUFFER_SIZE));
+        // utf8 bytes are written straight into the compressed stream, no string per row
+        rowWriter =
+          RowWriter.forFormat(
+            writer.getReplicator().getConfig().s3.format,
+            new GZIPOutputStream(compressed, SEGMENT_BUFFER_SIZE));
       } catch (Exception e) {
         App.fatal(e);
       }
     }
 
-    public void add(List<String> row) {
+    public void add(Row row) {
       try {
-        fileWriter.write(mapper.writeValueAsString(row));
-        fileWriter.write("\n");
+        rowWriter.write(row);
       } catch (Exception e) {
         throw new RuntimeException(e);
       }
     }
 
+    // lags behind what was added by whatever the row writer and the deflater still hold
+    public long compressedSize() {
+      return compressed.getCount();
+    }
+
     public void finish() {
       try {
-        fileWriter.flush();
-        fileWriter.close();
-        writer.getUploader().execute(new UploadJob(writer, table, file.getPath(), finished));
+        // closes the gzip stream and the file or upload underneath it
+        rowWriter.close();
+        if (!streaming) {
+          // blocks the extraction while too many finished segments are waiting on disk
+          long length = file.length();
+          writer.getUploadBudget().acquire(length);
+          writer.getUploader().execute(new UploadJob(writer, table, file.getPath(), length, finished));
+        }
       } catch (Exception e) {
         throw new RuntimeException(e);
       }
@@ -178,54 +320,45 @@ public class S3Writer {
 
     S3Writer s3Writer;
     Replicator replicator;
-    ConcurrentHashMap<String, BlockingQueue<CopyJob>> queues;
-    ConcurrentHashMap<String, ReentrantLock> tableCopyLocks;
+    CopyDispatcher<CopyJob> dispatcher;
+    CopyBatchPolicy batchPolicy;
+    int slices;
 
-    CopyWorker(S3Writer s3Writer, ConcurrentHashMap<String, BlockingQueue<CopyJob>> queues, ConcurrentHashMap<String, ReentrantLock> tableCopyLocks) {
+    CopyWorker(S3Writer s3Writer, CopyDispatcher<CopyJob> dispatcher, CopyBatchPolicy batchPolicy) {
       this.s3Writer = s3Writer;
       this.replicator = s3Writer.getReplicator();
-      this.queues = queues;
-      this.tableCopyLocks = tableCopyLocks;
+      this.dispatcher = dispatcher;
+      this.batchPolicy = batchPolicy;
+      this.slices = replicator.getRedshift().getSliceCount();
     }
 
+    // A copy splits its files over the slices of the cluster, so a manifest of fewer files than
+    // slices leaves some of them idle, and one that isn't a multiple of the slices leaves some idle
+    // for the last round. Each copy waits a little for a full round of files, and leaves whatever
+    // is past the last full round for the next copy.
     public void run() {
       while (true) {
-        for (ConcurrentHashMap.Entry<String, BlockingQueue<CopyJob>> copyEntry : queues.entrySet()) {
+        try {
+          String tableName = dispatcher.next();
           try {
-            String currentTableName = copyEntry.getKey();
-            BlockingQueue<CopyJob> queue = copyEntry.getValue();
-
-            ReentrantLock currentTableLock = tableCopyLocks.get(currentTableName);
-            if (!currentTableLock.tryLock()) {
-              continue;
-            }
-
-            try {
-              // wait a second to take an item
-              CopyJob firstJob = queue.poll(1L, TimeUnit.SECONDS);
-              // when there is no item, go to the next entry in the loop
-              if (firstJob == null) continue;
-
-              Config.Table table = firstJob.getTable();
-              ArrayList<CopyJob> jobs = new ArrayList<>();
-              jobs.add(firstJob);
-              // drain up to 9 more for 10 in total
-              queue.drainTo(jobs, 9);
-
-              processJobs(table, jobs);
-            } finally {
-              currentTableLock.unlock();
-            }
-          } catch (InterruptedException ie) {
-            return; // do nothing and return
-          } catch (Exception e) {
-            App.fatal(e);
+            int files = batchPolicy.manifestFiles(tableName, dispatcher.getPendingCount(tableName));
+            List<CopyJob> jobs =
+              dispatcher.take(tableName, slices, files, replicator.getConfig().redshift.copyWaitMillis);
+            long startNanos = System.nanoTime();
+            processJobs(jobs.get(0).getTable(), jobs);
+            batchPolicy.record(tableName, jobs.size(), (System.nanoTime() - startNanos) / 1e9);
+          } finally {
+            dispatcher.release(tableName);
           }
+        } catch (InterruptedException ie) {
+          return; // do nothing and return
+        } catch (Exception e) {
+          App.fatal(e);
         }
       }
     }
 
-    private void processJobs(Config.Table table, ArrayList<CopyJob> jobs) throws JsonProcessingException{
+    private void processJobs(Config.Table table, List<CopyJob> jobs) throws JsonProcessingException{
       String manifestId = UUID.randomUUID().toString();
       String manifestPath = String.format("%s/manifest-%s.json", table.name, manifestId);
       HashMap<String, ArrayList<HashMap<String, Object>>> manifest = new HashMap<>();
@@ -239,27 +372,25 @@ public class S3Writer {
         entries.add(entry);
       }
       manifest.put("entries", entries);
-      ObjectMapper mapper = new ObjectMapper();
       s3Writer
               .getClient()
               .putObject(
                       replicator.getConfig().s3.bucket,
                       manifestPath,
-                      mapper.writeValueAsString(manifest));
+                      MAPPER.writeValueAsString(manifest));
 
       LOG.info(String.format("copying to %s with %s segments", table.name, jobs.size()));
+      long startNanos = System.nanoTime();
       replicator.getRedshift().copyManifestPath(table, manifestPath);
+      replicator.getRedshift().getStats(table.name).addCopy(System.nanoTime() - startNanos);
+      // handed to the cleaner first, so it has them all once the run sees its segments copied
+      for (CopyJob job : jobs) {
+        s3Writer.getCleaner().delete(job.getKey());
+      }
+      s3Writer.getCleaner().delete(manifestPath);
       for (CopyJob job : jobs) {
         job.getFinished().decrement();
-        s3Writer
-                .getClient()
-                .deleteObject(
-                        new DeleteObjectRequest(replicator.getConfig().s3.bucket, job.getKey()));
       }
-      s3Writer
-              .getClient()
-              .deleteObject(
-                      new DeleteObjectRequest(replicator.getConfig().s3.bucket, manifestPath));
     }
   }
 
@@ -268,32 +399,39 @@ public class S3Writer {
     S3Writer s3Writer;
     Config.Table table;
     String path;
+    long length;
     ReusableCountLatch finished;
 
     public UploadJob(
                       S3Writer s3Writer,
                       Config.Table table,
                       String path,
+                      long length,
                       ReusableCountLatch finished) {
       this.s3Writer = s3Writer;
       this.replicator = s3Writer.getReplicator();
       this.table = table;
       this.path = path;
+      this.length = length;
       this.finished = finished;
     }
 
     public void run() {
       File file = new File(path);
       try {
-        String id = UUID.randomUUID().toString();
-        String key = String.format("%s/%s.json.gz", table.name, id);
+        String key = s3Writer.newSegmentKey(table);
+        long startNanos = System.nanoTime();
         s3Writer.getClient().putObject(replicator.getConfig().s3.bucket, key, file);
+        PUT_SECONDS.observeSince(startNanos);
+        replicator.getRedshift().getStats(table.name).addUpload(System.nanoTime() - startNanos);
+        s3Writer.getUploadTuner().addUploaded(length);
         LOG.debug(String.format("done uploading %s", key));
         s3Writer.enqueueKey(table, key, finished);
       } catch (Exception e) {
         App.fatal(e);
       } finally {
         file.delete();
+        s3Writer.getUploadBudget().release(length);
       }
     }
   }
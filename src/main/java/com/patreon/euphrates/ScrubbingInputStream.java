@@ -13,6 +13,21 @@ import java.nio.charset.CodingErrorAction;
 public class ScrubbingInputStream extends FilterInputStream {
 
   private static final int BUFFER_SIZE = 16_384;
+  // classification of every char, so the filter is a table lookup instead of a unicode block search
+  private static final boolean[] PRINTABLE = new boolean[Character.MAX_VALUE + 1];
+  private static final Metrics.Counter BYTES_IN =
+    Metrics.counter("euphrates_scrub_input_bytes_total", "Bytes read by the scrubber");
+  private static final Metrics.Counter BYTES_OUT =
+    Metrics.counter("euphrates_scrub_output_bytes_total", "Bytes left after scrubbing");
+  // only the scrubbing itself, not the wait for its input
+  private static final Metrics.Counter NANOS =
+    Metrics.counter("euphrates_scrub_nanoseconds_total", "Time spent scrubbing");
+
+  static {
+    for (int c = Character.MIN_VALUE; c <= Character.MAX_VALUE; c++) {
+      PRINTABLE[c] = classify((char) c);
+    }
+  }
 
   CharsetDecoder decoder = Charset.forName("UTF-8").newDecoder();
   CharsetEncoder encoder = Charset.forName("UTF-8").newEncoder();
@@ -56,8 +71,21 @@ public class ScrubbingInputStream extends FilterInputStream {
     }
 
     int bytesRead = in.read(readBuffer);
+    long startNanos = System.nanoTime();
+    filter(bytesRead);
+    NANOS.add(System.nanoTime() - startNanos);
+    if (bytesRead > 0) BYTES_IN.add(bytesRead);
+    BYTES_OUT.add(byteBuffer.remaining());
+  }
+
+  private void filter(int bytesRead) {
     boolean eof = bytesRead == -1;
 
+    // unless chars are held back from an earlier block, a well formed block is filtered in place
+    if (!eof && goodCharBuffer.position() == 0 && fillWellFormed(bytesRead)) {
+      return;
+    }
+
     ByteBuffer bytesIn = ByteBuffer.wrap(readBuffer, 0, eof ? 0 : bytesRead);
     decoder.decode(bytesIn, charBuffer, eof);
     if (eof) decoder.flush(charBuffer);
@@ -81,7 +109,93 @@ public class ScrubbingInputStream extends FilterInputStream {
     goodCharBuffer.compact();
   }
 
-  public boolean isPrintableChar( char c ) {
+  // Filters well formed utf8 in the read buffer straight into the byte buffer. Kept chars encode
+  // back to the very same bytes, so without malformed input this matches decoding, filtering and
+  // encoding. Gives up on anything malformed or cut off at the end of the buffer, which is left to
+  // the decoder.
+  private boolean fillWellFormed(int length) {
+    byte[] out = byteBuffer.array();
+    int written = 0;
+    int i = 0;
+    while (i != length) {
+      int b0 = readBuffer[i] & 0xff;
+      if (b0 < 0x80) {
+        if (PRINTABLE[b0]) out[written++] = (byte) b0;
+        i++;
+        continue;
+      }
+
+      int size;
+      boolean printable;
+      if (b0 >= 0xc2 && b0 <= 0xdf) {
+        if (i + 2 > length || !isContinuation(readBuffer[i + 1], 0x80, 0xbf)) return false;
+        size = 2;
+        printable = PRINTABLE[((b0 & 0x1f) << 6) | (readBuffer[i + 1] & 0x3f)];
+      } else if (b0 >= 0xe0 && b0 <= 0xef) {
+        // no overlong encodings and no surrogates
+        int low = b0 == 0xe0 ? 0xa0 : 0x80;
+        int high = b0 == 0xed ? 0x9f : 0xbf;
+        if (i + 3 > length
+              || !isContinuation(readBuffer[i + 1], low, high)
+              || !isContinuation(readBuffer[i + 2], 0x80, 0xbf)) return false;
+        size = 3;
+        printable =
+          PRINTABLE[((b0 & 0x0f) << 12) | ((readBuffer[i + 1] & 0x3f) << 6) | (readBuffer[i + 2] & 0x3f)];
+      } else if (b0 >= 0xf0 && b0 <= 0xf4) {
+        // no overlong encodings and nothing past U+10FFFF
+        int low = b0 == 0xf0 ? 0x90 : 0x80;
+        int high = b0 == 0xf4 ? 0x8f : 0xbf;
+        if (i + 4 > length
+              || !isContinuation(readBuffer[i + 1], low, high)
+              || !isContinuation(readBuffer[i + 2], 0x80, 0xbf)
+              || !isContinuation(readBuffer[i + 3], 0x80, 0xbf)) return false;
+        size = 4;
+        int codePoint =
+          ((b0 & 0x07) << 18)
+            | ((readBuffer[i + 1] & 0x3f) << 12)
+            | ((readBuffer[i + 2] & 0x3f) << 6)
+            | (readBuffer[i + 3] & 0x3f);
+        printable =
+          PRINTABLE[Character.highSurrogate(codePoint)] && PRINTABLE[Character.lowSurrogate(codePoint)];
+      } else {
+        return false;
+      }
+
+      if (printable) {
+        System.arraycopy(readBuffer, i, out, written, size);
+        written += size;
+      }
+      i += size;
+    }
+    byteBuffer.clear();
+    byteBuffer.limit(written);
+    return true;
+  }
+
+  private static boolean isContinuation(byte b, int low, int high) {
+    int value = b & 0xff;
+    return value >= low && value <= high;
+  }
+
+  // applies the same filter to a value that never went through a stream, returns it as is when clean
+  public static String scrub(String value) {
+    int i = 0, len = value.length();
+    while (i != len && isPrintableChar(value.charAt(i))) i++;
+    if (i == len) return value;
+
+    StringBuilder scrubbed = new StringBuilder(len).append(value, 0, i);
+    for (; i != len; i++) {
+      char c = value.charAt(i);
+      if (isPrintableChar(c)) scrubbed.append(c);
+    }
+    return scrubbed.toString();
+  }
+
+  public static boolean isPrintableChar( char c ) {
+    return PRINTABLE[c];
+  }
+
+  private static boolean classify( char c ) {
     Character.UnicodeBlock block = Character.UnicodeBlock.of( c );
     return (!Character.isISOControl(c) || c == '\n' || c == '\t' || c == '\r') &&
              block != null &&
@@ -0,0 +1,64 @@
+package com.patreon.euphrates;
+
+import javafixes.concurrency.ReusableCountLatch;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.LogManager;
+
+import java.util.function.Supplier;
+
+// Serializes rows into the current segment, handing it to the S3Writer and starting a new one
+// once it is big enough.
+class SegmentEncoder {
+
+  private static final Logger LOG = LogManager.getLogger(SegmentEncoder.class);
+
+  Replicator replicator;
+  // counts the segments of the table being encoded until they are copied
+  Supplier<ReusableCountLatch> latches;
+  ReusableCountLatch finished = null;
+  Config.Table table = null;
+  S3Writer.RowEnqueuer rows = null;
+  int rowCount = 0;
+  long segmentSize = 0;
+  long encodeNanos = 0;
+
+  SegmentEncoder(Replicator replicator, ReusableCountLatch finished) {
+    this(replicator, () -> finished);
+  }
+
+  SegmentEncoder(Replicator replicator, Supplier<ReusableCountLatch> latches) {
+    this.replicator = replicator;
+    this.latches = latches;
+  }
+
+  void add(Config.Table table, Row row) {
+    long startNanos = System.nanoTime();
+    if (rows == null) {
+      this.table = table;
+      this.segmentSize = replicator.getRedshift().getSegmentSize(table);
+      this.finished = latches.get();
+      rows = replicator.getS3Writer().getRowEnqueuer(table, finished);
+    }
+    rows.add(row);
+    rowCount++;
+    encodeNanos += System.nanoTime() - startNanos;
+    // compressed bytes are what redshift loads, so that is what a segment is sized by
+    if (rows.compressedSize() > segmentSize) {
+      finish();
+    }
+  }
+
+  void finish() {
+    if (rows == null) return;
+    LOG.info(String.format("enqueuing %s segment of %s rows", table.name, rowCount));
+    // register before handing off, so the copy can't finish before it is counted
+    finished.increment();
+    long startNanos = System.nanoTime();
+    rows.finish();
+    encodeNanos += System.nanoTime() - startNanos;
+    replicator.getRedshift().getStats(table.name).addEncode(rows.compressedSize(), encodeNanos);
+    rows = null;
+    rowCount = 0;
+    encodeNanos = 0;
+  }
+}
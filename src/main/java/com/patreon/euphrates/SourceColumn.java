@@ -0,0 +1,86 @@
+package com.patreon.euphrates;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// A column of a mysql table as information_schema describes it, which binlog rows need to be
+// read, since they only carry values by position.
+public class SourceColumn {
+
+  final String name;
+  // zero based position of the column in the table
+  final int position;
+  // such as int or varchar
+  final String dataType;
+  // the full type, such as int(10) unsigned or enum('a','b')
+  final String columnType;
+  List<String> labels = null;
+
+  public SourceColumn(String name, int position, String dataType, String columnType) {
+    this.name = name;
+    this.position = position;
+    this.dataType = dataType;
+    this.columnType = columnType;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public int getPosition() {
+    return position;
+  }
+
+  public String getDataType() {
+    return dataType;
+  }
+
+  public String getColumnType() {
+    return columnType;
+  }
+
+  public boolean isUnsigned() {
+    return columnType.endsWith(" unsigned") || columnType.contains(" unsigned ");
+  }
+
+  // digits of the fractional seconds a datetime, timestamp or time column keeps, such as 6 for datetime(6)
+  public int getFractionalDigits() {
+    int open = columnType.indexOf('(');
+    if (open == -1) return 0;
+    return Integer.parseInt(columnType.substring(open + 1, columnType.indexOf(')', open)).trim());
+  }
+
+  // the values of an enum or set column, in the order the binlog numbers them
+  public List<String> getLabels() {
+    if (labels == null) labels = parseLabels(columnType);
+    return labels;
+  }
+
+  static List<String> parseLabels(String columnType) {
+    List<String> labels = new ArrayList<>();
+    StringBuilder label = null;
+    int end = columnType.lastIndexOf(')');
+    for (int i = columnType.indexOf('(') + 1; i < end; i++) {
+      char c = columnType.charAt(i);
+      if (label == null) {
+        // between labels, only the opening quote matters
+        if (c == '\'') label = new StringBuilder();
+      } else if (c == '\'' && i + 1 < end && columnType.charAt(i + 1) == '\'') {
+        // a quote inside a label is doubled
+        label.append(c);
+        i++;
+      } else if (c == '\'') {
+        labels.add(label.toString());
+        label = null;
+      } else {
+        label.append(c);
+      }
+    }
+    return labels;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("%s %s", name, columnType);
+  }
+}
@@ -1,99 +1,107 @@
 package com.patreon.euphrates;
 
-import javafixes.concurrency.ReusableCountLatch;
 import org.codehaus.stax2.XMLInputFactory2;
 import org.codehaus.stax2.XMLStreamReader2;
-import org.apache.logging.log4j.Logger;
-import org.apache.logging.log4j.LogManager;
 
 import javax.xml.stream.XMLInputFactory;
 import javax.xml.stream.XMLStreamException;
 import javax.xml.stream.XMLStreamReader;
+import java.io.FilterInputStream;
+import java.io.IOException;
 import java.io.InputStream;
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.List;
+import java.util.IdentityHashMap;
 import java.util.Map;
-import java.util.concurrent.CountDownLatch;
+import java.util.function.Function;
 
 public class StreamParser {
 
-  private static final Logger LOG = LogManager.getLogger(StreamParser.class);
+  private static final Metrics.Counter ROWS =
+    Metrics.counter("euphrates_parsed_rows_total", "Rows parsed out of the dump");
+  private static final Metrics.Counter BYTES =
+    Metrics.counter("euphrates_parsed_bytes_total", "Bytes of dump parsed");
 
-  Replicator replicator;
+  Function<String, Config.Table> tables;
+  RowSink stream;
   Config.Table table;
+  // rows and field positions are kept per table, so going back and forth between tables is cheap
+  Map<Config.Table, Row> tableRows = new IdentityHashMap<>();
+  Map<Config.Table, int[]> tableFieldSlots = new IdentityHashMap<>();
   Map<String, Integer> columnMap = new HashMap<>();
-  CountDownLatch started = new CountDownLatch(1);
-  ReusableCountLatch finished = new ReusableCountLatch();
-  S3Writer.RowEnqueuer rows = null;
-  int rowIndex = 0;
 
-  public StreamParser(Replicator replicator) {
-    this.replicator = replicator;
+  public StreamParser(Replicator replicator, RowSink stream) {
+    this(replicator::getTable, stream);
+  }
+
+  public StreamParser(Function<String, Config.Table> tables, RowSink stream) {
+    this.tables = tables;
+    this.stream = stream;
   }
 
   public void parse(InputStream is) {
     try {
       XMLInputFactory2 inputFactory = XMLInputFactory2.class.cast(XMLInputFactory.newInstance());
       XMLStreamReader2 reader =
-        XMLStreamReader2.class.cast(inputFactory.createXMLStreamReader(is, "UTF8"));
+        XMLStreamReader2.class.cast(inputFactory.createXMLStreamReader(new CountingInputStream(is), "UTF8"));
 
-      List<String> currentRow = null;
+      Row currentRow = null;
+      // mysqldump prints the fields of every row in the same order, so the config column of each
+      // field position is resolved by name on the first row only, and -2 marks it as unresolved
+      int[] fieldSlots = null;
 
+      int fieldPosition = -1;
       int columnIndex = -1;
       int valueCount = -1;
-      int size = 0;
-      long startTime = 0;
-      StringBuilder currentValue = null;
       while (reader.hasNext()) {
         int type = reader.next();
         switch (type) {
           case XMLStreamReader.START_ELEMENT:
+            // woodstox interns local names, so these switches don't allocate
             switch (reader.getLocalName()) {
               case "table_data":
-                String tableName = reader.getAttributeValue(null, "name");
-                table = replicator.getTable(tableName);
-                rows = replicator.getS3Writer().getRowEnqueuer(table, finished);
-                startTime = System.currentTimeMillis() / 1000l;
-                populateColumnMap();
+                table = tables.apply(reader.getAttributeValue(null, "name"));
+                stream.start(table);
+                currentRow = tableRows.computeIfAbsent(table, t -> new Row(t.columns.size()));
+                fieldSlots = tableFieldSlots.computeIfAbsent(table, t -> new int[0]);
+                populateColumnMap(table);
                 break;
               case "field":
-                String fieldName = reader.getAttributeValue(null, "name");
-                columnIndex = columnMap.getOrDefault(fieldName, new Integer(-1));
+                fieldPosition++;
+                if (fieldPosition >= fieldSlots.length) {
+                  fieldSlots = Arrays.copyOf(fieldSlots, fieldPosition + 1);
+                  fieldSlots[fieldPosition] = -2;
+                  tableFieldSlots.put(table, fieldSlots);
+                }
+                if (fieldSlots[fieldPosition] == -2) {
+                  String fieldName = reader.getAttributeValue(null, "name");
+                  fieldSlots[fieldPosition] = columnMap.getOrDefault(fieldName, -1);
+                }
+                columnIndex = fieldSlots[fieldPosition];
                 break;
               case "row":
-                currentRow = new ArrayList<>();
-                for (int i = 0, len = columnMap.size(); i != len; i++) {
-                  currentRow.add(null);
-                }
-                rowIndex++;
-                valueCount = columnMap.size();
+                currentRow.clear();
+                fieldPosition = -1;
+                valueCount = currentRow.size();
                 break;
             }
             break;
           case XMLStreamReader.END_ELEMENT:
             switch (reader.getLocalName()) {
               case "table_data":
-                enqueueCurrentRows();
-                replicator.getRedshift().recordTableSize(table.name, System.currentTimeMillis() / 1000l - startTime);
+                stream.end();
                 table = null;
                 break;
               case "row":
-                rows.add(currentRow);
                 if (valueCount != 0)
                   throw new RuntimeException(
                                               String.format(
                                                 "value count was expected to be 0, was instead %s for table %s", valueCount, table.name));
-                size += currentRow.stream().mapToInt(v -> v == null ? 4 : v.length()).sum();
-                if (size > replicator.getConfig().s3.minimumSegmentSize) {
-                  enqueueCurrentRows();
-                  size = 0;
-                }
+                stream.add(currentRow);
+                ROWS.increment();
                 break;
               case "field":
                 if (columnIndex != -1) {
-                  currentRow.set(columnIndex, currentValue == null ? null : currentValue.toString());
-                  currentValue = null;
                   valueCount--;
                   columnIndex = -1;
                 }
@@ -102,40 +110,19 @@ public class StreamParser {
             break;
           case XMLStreamReader.CHARACTERS:
             if (columnIndex != -1) {
-              if (currentValue == null) currentValue = new StringBuilder();
-              currentValue.append(reader.getText());
+              // copies straight out of the reader's buffer, without building a String
+              currentRow.append(
+                columnIndex, reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
             }
             break;
         }
       }
-      flush();
     } catch (XMLStreamException e) {
       throw new RuntimeException(e);
     }
   }
 
-  private void flush() {
-    try {
-      // started latch must be tripped
-      started.await();
-      // finished phase must be 0
-      finished.waitTillZero();
-    } catch (InterruptedException e) {
-      // do nothing
-      LOG.error(String.format("interruptted! %s", e));
-    }
-  }
-
-  private void enqueueCurrentRows() {
-    LOG.info(String.format("enqueuing %s at index %s", table.name, rowIndex));
-    rows.finish();
-    rows = replicator.getS3Writer().getRowEnqueuer(table, finished);
-    // register before counting down the started latch
-    finished.increment();
-    started.countDown();
-  }
-
-  private void populateColumnMap() {
+  private void populateColumnMap(Config.Table table) {
     int position = 0;
     columnMap.clear();
     for (Map.Entry<String, String> column : table.columns.entrySet()) {
@@ -143,4 +130,26 @@ public class StreamParser {
       position++;
     }
   }
+
+  // counts the bytes the reader takes in, which it does in blocks
+  static class CountingInputStream extends FilterInputStream {
+
+    CountingInputStream(InputStream in) {
+      super(in);
+    }
+
+    @Override
+    public int read() throws IOException {
+      int b = in.read();
+      if (b != -1) BYTES.increment();
+      return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      int read = in.read(b, off, len);
+      if (read > 0) BYTES.add(read);
+      return read;
+    }
+  }
 }
@@ -0,0 +1,77 @@
+package com.patreon.euphrates;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class TableChunk {
+
+  Config.Table table;
+  // inclusive lower and exclusive upper primary key bounds, null when unbounded
+  Long lower;
+  Long upper;
+  // only rows whose watermark is at least this, null for every row
+  String since;
+
+  public TableChunk(Config.Table table, Long lower, Long upper) {
+    this(table, lower, upper, null);
+  }
+
+  public TableChunk(Config.Table table, Long lower, Long upper, String since) {
+    this.table = table;
+    this.lower = lower;
+    this.upper = upper;
+    this.since = since;
+  }
+
+  public static TableChunk whole(Config.Table table) {
+    return new TableChunk(table, null, null);
+  }
+
+  // rows on the watermark itself are copied again, in case more of them were written after it
+  // was read, which the merge by primary key makes harmless
+  public static TableChunk changedSince(Config.Table table, String watermark) {
+    return new TableChunk(table, null, null, watermark);
+  }
+
+  // splits [min, max] into evenly sized ranges, the first and last are left open so rows
+  // inserted outside the observed bounds are still picked up
+  public static List<TableChunk> split(Config.Table table, long min, long max) {
+    long span = max - min + 1;
+    int count = (int) Math.min(table.chunks, span);
+    if (count <= 1) return Collections.singletonList(whole(table));
+
+    long step = (span + count - 1) / count;
+    List<TableChunk> chunks = new ArrayList<>();
+    for (int i = 0; i != count; i++) {
+      Long lower = i == 0 ? null : min + step * i;
+      Long upper = i == count - 1 ? null : min + step * (i + 1);
+      chunks.add(new TableChunk(table, lower, upper));
+    }
+    return chunks;
+  }
+
+  public Config.Table getTable() {
+    return table;
+  }
+
+  public boolean isWholeTable() {
+    return lower == null && upper == null && since == null;
+  }
+
+  public String where() {
+    if (isWholeTable()) return null;
+    List<String> conditions = new ArrayList<>();
+    if (since != null) {
+      conditions.add(String.format("%s >= '%s'", table.watermark, since.replace("'", "''")));
+    }
+    if (lower != null) conditions.add(String.format("%s >= %s", table.primaryKey, lower));
+    if (upper != null) conditions.add(String.format("%s < %s", table.primaryKey, upper));
+    return String.join(" and ", conditions);
+  }
+
+  @Override
+  public String toString() {
+    return isWholeTable() ? table.name : String.format("%s[%s]", table.name, where());
+  }
+}
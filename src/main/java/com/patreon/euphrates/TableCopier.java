@@ -3,9 +3,13 @@ package com.patreon.euphrates;
 import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.LogManager;
 
+import java.io.IOException;
+import java.sql.Connection;
 import java.time.Clock;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.stream.Collectors;
 
 class TableCopier implements Runnable {
 
@@ -13,65 +17,117 @@ class TableCopier implements Runnable {
 
   Replicator replicator;
   Config.Mysql mysql;
-  List<String> tableNames;
+  List<TableChunk> chunks;
+  // the connection of a consistent snapshot to read with, null when reading on its own
+  Connection snapshotConnection;
+  // shared by every extraction of a worker, whoever owns it waits for the copies
+  TableStream stream;
 
-  public TableCopier(Replicator replicator, Config.Mysql mysql, List<String> tableNames) {
+  public TableCopier(
+                     Replicator replicator,
+                     Config.Mysql mysql,
+                     List<TableChunk> chunks,
+                     Connection snapshotConnection,
+                     TableStream stream) {
     this.replicator = replicator;
     this.mysql = mysql;
-    this.tableNames = tableNames;
+    this.chunks = chunks;
+    this.snapshotConnection = snapshotConnection;
+    this.stream = stream;
   }
 
   @Override
   public void run() {
     try {
-      if (tableNames.isEmpty()) return;
+      if (chunks.isEmpty()) return;
 
-      LOG.info(String.format("Running table copier for %s", tableNames));
-      for (String tableName : tableNames) {
-        Schema schema = new Schema(replicator.getConfig().redshift.schema, replicator.getTable(tableName));
-        LOG.debug(String.format("schema is %s", schema.generate()));
-        replicator.getRedshift().generateTempTable(schema);
+      LOG.info(String.format("Running table copier for %s", chunks));
+
+      if (snapshotConnection != null) {
+        long startTime = Clock.systemUTC().millis();
+        new JdbcExtractor(replicator, stream).extract(snapshotConnection, chunks);
+        long elapsed = Clock.systemUTC().millis() - startTime;
+        LOG.info(String.format("Done selecting %s from the snapshot in %s seconds", chunks, elapsed / 1000));
+        return;
+      }
+
+      // whole tables share a single extraction, ranged chunks get one each
+      List<TableChunk> wholeTables = chunks.stream()
+                                       .filter(TableChunk::isWholeTable)
+                                       .collect(Collectors.toList());
+      if (!wholeTables.isEmpty()) extract(wholeTables);
+
+      for (TableChunk chunk : chunks) {
+        if (chunk.isWholeTable()) continue;
+        extract(Collections.singletonList(chunk));
       }
-      LOG.info(String.format("Done generating schema for %s", tableNames));
-
-      long startTime = Clock.systemUTC().millis();
-
-      List<String> dumpargs = new ArrayList<String>();
-      dumpargs.add("mysqldump");
-      dumpargs.add("--compress");
-      dumpargs.add("-h");
-      dumpargs.add(mysql.host);
-      dumpargs.add("-u");
-      dumpargs.add(mysql.user);
-      dumpargs.add("-p" + mysql.password);
-      dumpargs.add("-P" + mysql.port);
-      dumpargs.add("--protocol=tcp");
-      // dump out timezones
-      dumpargs.add("--tz-utc");
-      // dump as a single transaction
-      dumpargs.add("--single-transaction");
-      dumpargs.add("--quick");
-      dumpargs.add("--xml");
-      dumpargs.add("--max_allowed_packet=512M");
-
-      dumpargs.add(mysql.database);
-      dumpargs.addAll(tableNames);
-
-      LOG.info(String.format("Running a mysqldump for %s", dumpargs));
-
-      // TODO feed stderr to a logger via redirectError so we catch errors from mysqldump
-      Process dumpProcess =
-        new ProcessBuilder(dumpargs)
-          .redirectError(ProcessBuilder.Redirect.INHERIT)
-          .redirectOutput(ProcessBuilder.Redirect.PIPE)
-          .start();
-
-      StreamParser parser = new StreamParser(replicator);
-      parser.parse(new ScrubbingInputStream(dumpProcess.getInputStream()));
-      long elapsed = Clock.systemUTC().millis() - startTime;
-      LOG.info(String.format("Done copying tables %s in %s seconds", tableNames, elapsed / 1000));
     } catch (Exception e) {
       throw new RuntimeException(e);
     }
   }
+
+  private void extract(List<TableChunk> extractChunks) throws IOException {
+    switch (mysql.extractor) {
+      case "mysqldump":
+        List<String> tableNames = extractChunks.stream()
+                                    .map(c -> c.getTable().name)
+                                    .collect(Collectors.toList());
+        // ranged chunks are always extracted on their own
+        dump(tableNames, extractChunks.get(0).where());
+        break;
+      case "jdbc":
+        long startTime = Clock.systemUTC().millis();
+        new JdbcExtractor(replicator, stream).extract(extractChunks);
+        long elapsed = Clock.systemUTC().millis() - startTime;
+        LOG.info(String.format("Done selecting %s in %s seconds", extractChunks, elapsed / 1000));
+        break;
+      default:
+        throw new IllegalArgumentException(String.format("unknown extractor %s", mysql.extractor));
+    }
+  }
+
+  private void dump(List<String> tableNames, String where) throws IOException {
+    long startTime = Clock.systemUTC().millis();
+
+    List<String> dumpargs = new ArrayList<String>();
+    dumpargs.add("mysqldump");
+    dumpargs.add("--compress");
+    dumpargs.add("-h");
+    dumpargs.add(mysql.host);
+    dumpargs.add("-u");
+    dumpargs.add(mysql.user);
+    dumpargs.add("-p" + mysql.password);
+    dumpargs.add("-P" + mysql.port);
+    dumpargs.add("--protocol=tcp");
+    // dump out timezones
+    dumpargs.add("--tz-utc");
+    // dump as a single transaction
+    dumpargs.add("--single-transaction");
+    dumpargs.add("--quick");
+    dumpargs.add("--xml");
+    dumpargs.add("--max_allowed_packet=512M");
+    if (where != null) dumpargs.add("--where=" + where);
+
+    dumpargs.add(mysql.database);
+    dumpargs.addAll(tableNames);
+
+    LOG.info(String.format("Running a mysqldump for %s", dumpargs));
+
+    // TODO feed stderr to a logger via redirectError so we catch errors from mysqldump
+    Process dumpProcess =
+      new ProcessBuilder(dumpargs)
+        .redirectError(ProcessBuilder.Redirect.INHERIT)
+        .redirectOutput(ProcessBuilder.Redirect.PIPE)
+        .start();
+
+    StreamParser parser = new StreamParser(replicator, stream);
+    parser.parse(new ScrubbingInputStream(dumpProcess.getInputStream()));
+    long elapsed = Clock.systemUTC().millis() - startTime;
+    LOG.info(
+      String.format(
+        "Done copying tables %s%s in %s seconds",
+        tableNames,
+        where == null ? "" : " where " + where,
+        elapsed / 1000));
+  }
 }
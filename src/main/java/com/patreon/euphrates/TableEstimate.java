@@ -0,0 +1,74 @@
+package com.patreon.euphrates;
+
+// What copying a table is expected to take, smoothed over its past runs so a single odd run
+// doesn't throw the schedule off.
+public class TableEstimate {
+
+  // weight of the newest run
+  static final double ALPHA = 0.3;
+
+  final double rows;
+  final double rawBytes;
+  final double compressedBytes;
+  final double extractSeconds;
+  final double encodeSeconds;
+  final double uploadSeconds;
+  final double copySeconds;
+  final double copies;
+
+  public TableEstimate(
+                        double rows,
+                        double rawBytes,
+                        double compressedBytes,
+                        double extractSeconds,
+                        double encodeSeconds,
+                        double uploadSeconds,
+                        double copySeconds,
+                        double copies) {
+    this.rows = rows;
+    this.rawBytes = rawBytes;
+    this.compressedBytes = compressedBytes;
+    this.extractSeconds = extractSeconds;
+    this.encodeSeconds = encodeSeconds;
+    this.uploadSeconds = uploadSeconds;
+    this.copySeconds = copySeconds;
+    this.copies = copies;
+  }
+
+  // an exponentially weighted moving average, with the next run weighted by ALPHA
+  public TableEstimate next(TableEstimate run) {
+    return new TableEstimate(
+      blend(rows, run.rows),
+      blend(rawBytes, run.rawBytes),
+      blend(compressedBytes, run.compressedBytes),
+      blend(extractSeconds, run.extractSeconds),
+      blend(encodeSeconds, run.encodeSeconds),
+      blend(uploadSeconds, run.uploadSeconds),
+      blend(copySeconds, run.copySeconds),
+      blend(copies, run.copies));
+  }
+
+  public double getCompressedBytes() {
+    return compressedBytes;
+  }
+
+  public double getExtractSeconds() {
+    return extractSeconds;
+  }
+
+  // how long the last copy of the table holds up the end of the run
+  public double getCopySecondsEach() {
+    return copies == 0 ? 0 : copySeconds / copies;
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+      "%.0f rows, %.0f raw bytes, %.0f compressed bytes, extract %.1fs, encode %.1fs, upload %.1fs, copy %.1fs",
+      rows, rawBytes, compressedBytes, extractSeconds, encodeSeconds, uploadSeconds, copySeconds);
+  }
+
+  private static double blend(double current, double next) {
+    return current + ALPHA * (next - current);
+  }
+}
@@ -1,16 +0,0 @@
-package com.patreon.euphrates;
-
-import java.util.ArrayList;
-
-public class TableGroup extends ArrayList<String> {
-
-  private long sizeInMb = 0;
-
-  public void incrementSizeInMb(long size) {
-    sizeInMb += size;
-  }
-
-  public Long getSizeInMb() {
-    return sizeInMb;
-  }
-}
\ No newline at end of file
@@ -0,0 +1,56 @@
+package com.patreon.euphrates;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// What a run copies of one table: the watermark and fingerprint it is recorded with once it is
+// live, the chunks it was split into and which of those are committed to its staging table. It
+// is kept in redshift as the run goes, so a run that failed can be resumed where it stopped.
+public class TablePlan {
+
+  Config.Table table;
+  String newWatermark;
+  String newFingerprint;
+  List<TableChunk> chunks;
+  boolean[] done;
+  // swapped or merged into the live table
+  boolean published = false;
+
+  public TablePlan(Config.Table table, String newWatermark, String newFingerprint, List<TableChunk> chunks) {
+    this.table = table;
+    this.newWatermark = newWatermark;
+    this.newFingerprint = newFingerprint;
+    this.chunks = chunks;
+    this.done = new boolean[chunks.size()];
+  }
+
+  public Config.Table getTable() {
+    return table;
+  }
+
+  // copies only the rows changed since the last run, which are merged rather than swapped
+  public boolean isIncremental() {
+    return chunks.size() == 1 && chunks.get(0).since != null;
+  }
+
+  public List<TableChunk> pending() {
+    List<TableChunk> pending = new ArrayList<>();
+    for (int i = 0; i != chunks.size(); i++) {
+      if (!done[i]) pending.add(chunks.get(i));
+    }
+    return pending;
+  }
+
+  // chunks are told apart by identity, the same ranges may be planned again by another run
+  public int indexOf(TableChunk chunk) {
+    for (int i = 0; i != chunks.size(); i++) {
+      if (chunks.get(i) == chunk) return i;
+    }
+    throw new java.util.NoSuchElementException(chunk.toString());
+  }
+
+  @Override
+  public String toString() {
+    return String.format("%s, %s of %s chunks left", table.name, pending().size(), chunks.size());
+  }
+}
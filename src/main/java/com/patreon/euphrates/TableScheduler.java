@@ -0,0 +1,185 @@
+package com.patreon.euphrates;
+
+import javafixes.concurrency.ReusableCountLatch;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.LogManager;
+
+import java.sql.Connection;
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+// Hands table chunks out to a fixed number of extraction workers, always the one expected to
+// take longest first, so whichever worker frees up next takes the biggest remaining piece. Small
+// whole tables are handed out together, to share one extraction. Each worker keeps one stream
+// for all it extracts and goes straight on to its next chunk, while a chunk's segments are still
+// being copied. Estimates start from how long each table took last time, split evenly over its
+// chunks, and are replaced by how long its chunks actually take as they finish.
+class TableScheduler {
+
+  private static final Logger LOG = LogManager.getLogger(TableScheduler.class);
+  // whole tables expected to take less than this together share an extraction
+  private static final double BATCH_SECONDS = 30;
+
+  Replicator replicator;
+  List<TableChunk> remaining;
+  // expected seconds per chunk of each table
+  Map<String, Double> chunkEstimates = new HashMap<>();
+  Map<String, Double> finishedSeconds = new HashMap<>();
+  Map<String, Integer> finishedChunks = new HashMap<>();
+  // waits for the segments of each extracted chunk to be copied, and records it
+  ExecutorService checkpointer = Executors.newSingleThreadExecutor();
+
+  TableScheduler(Replicator replicator, List<TableChunk> chunks) {
+    this.replicator = replicator;
+    this.remaining = new ArrayList<>(chunks);
+    Map<String, Integer> chunkCounts = new HashMap<>();
+    for (TableChunk chunk : chunks) {
+      chunkCounts.merge(chunk.getTable().name, 1, Integer::sum);
+    }
+    for (Map.Entry<String, Integer> count : chunkCounts.entrySet()) {
+      TableEstimate estimate = replicator.getRedshift().getEstimate(count.getKey());
+      // tables without a history yet fall back to the seconds their last run took
+      double tableSeconds =
+        estimate != null ? estimate.getExtractSeconds() : replicator.getRedshift().getTableSize(count.getKey());
+      chunkEstimates.put(count.getKey(), tableSeconds / count.getValue());
+    }
+  }
+
+  // How long the whole run is expected to take: the longest a worker is busy handing out the
+  // estimates the way run does, and then the slowest table's last copy.
+  synchronized double predictSeconds(int workers) {
+    double[] busy = new double[workers];
+    remaining.stream()
+      .mapToDouble(this::estimate)
+      .boxed()
+      .sorted(Collections.reverseOrder())
+      .forEach(seconds -> {
+        int idlest = 0;
+        for (int i = 1; i != workers; i++) {
+          if (busy[i] < busy[idlest]) idlest = i;
+        }
+        busy[idlest] += seconds;
+      });
+    double extract = 0;
+    for (double seconds : busy) {
+      extract = Math.max(extract, seconds);
+    }
+    double copy = 0;
+    for (String name : chunkEstimates.keySet()) {
+      TableEstimate estimate = replicator.getRedshift().getEstimate(name);
+      if (estimate != null) copy = Math.max(copy, estimate.getCopySecondsEach());
+    }
+    return extract + copy;
+  }
+
+  // runs every chunk, each worker reading with its own connection of the snapshot when there is one
+  void run(int workers, MysqlSnapshot snapshot) {
+    LOG.info(
+      String.format(
+        "scheduling %s over %s workers, expecting %s seconds of work and the run to take %s seconds",
+        remaining, workers, Math.round(remainingSeconds()), Math.round(predictSeconds(workers))));
+    ExecutorService executor = Executors.newFixedThreadPool(workers);
+    try {
+      List<Future<?>> futures = new ArrayList<>();
+      for (int i = 0; i != workers; i++) {
+        Connection connection = snapshot == null ? null : snapshot.getConnection(i);
+        futures.add(executor.submit(() -> work(connection)));
+      }
+      for (Future<?> future : futures) {
+        future.get();
+      }
+      // every stream is flushed, so this only waits for the last checkpoints
+      checkpointer.shutdown();
+      checkpointer.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    } catch (ExecutionException ee) {
+      throw new RuntimeException(ee);
+    } catch (InterruptedException ie) {
+      // do nothing
+    } finally {
+      executor.shutdownNow();
+      checkpointer.shutdownNow();
+    }
+  }
+
+  private void work(Connection connection) {
+    TableStream stream = new TableStream(replicator);
+    List<TableChunk> chunks;
+    while (!(chunks = next()).isEmpty()) {
+      long startTime = Clock.systemUTC().millis();
+      new TableCopier(replicator, replicator.getConfig().mysql, chunks, connection, stream).run();
+      finished(chunks, (Clock.systemUTC().millis() - startTime) / 1000);
+      Map<Config.Table, ReusableCountLatch> copied = stream.takeStarted();
+      for (TableChunk chunk : chunks) {
+        ReusableCountLatch latch = copied.get(chunk.getTable());
+        checkpointer.submit(() -> checkpoint(chunk, latch));
+      }
+    }
+    stream.flush();
+  }
+
+  private void checkpoint(TableChunk chunk, ReusableCountLatch latch) {
+    try {
+      // an extraction without rows of the table never started it
+      if (latch != null) latch.waitTillZero();
+      replicator.chunkCopied(chunk);
+    } catch (InterruptedException e) {
+      // do nothing
+    } catch (Exception e) {
+      App.fatal(e);
+    }
+  }
+
+  // the longest remaining chunk, along with the next longest whole tables while they all add up
+  // to less than a batch
+  private synchronized List<TableChunk> next() {
+    List<TableChunk> chunks = new ArrayList<>();
+    double seconds = 0;
+    while (true) {
+      TableChunk longest = null;
+      for (TableChunk chunk : remaining) {
+        if (!chunks.isEmpty() && !chunk.isWholeTable()) continue;
+        if (longest == null || estimate(chunk) > estimate(longest)) longest = chunk;
+      }
+      if (longest == null) return chunks;
+      if (!chunks.isEmpty() && seconds + estimate(longest) > BATCH_SECONDS) return chunks;
+      remaining.remove(longest);
+      chunks.add(longest);
+      seconds += estimate(longest);
+      if (!longest.isWholeTable()) return chunks;
+    }
+  }
+
+  // the seconds an extraction took are shared out over its chunks by their estimates
+  private synchronized void finished(List<TableChunk> chunks, long seconds) {
+    double expected = chunks.stream().mapToDouble(this::estimate).sum();
+    for (TableChunk chunk : chunks) {
+      String name = chunk.getTable().name;
+      double chunkSeconds = expected > 0 ? seconds * estimate(chunk) / expected : (double) seconds / chunks.size();
+      double tableSeconds = finishedSeconds.merge(name, chunkSeconds, Double::sum);
+      int tableChunks = finishedChunks.merge(name, 1, Integer::sum);
+      // the chunks still waiting are most like the ones of the same table that already ran
+      chunkEstimates.put(name, tableSeconds / tableChunks);
+    }
+    LOG.info(
+      String.format(
+        "%s took %s seconds, %s chunks left expecting %s seconds of work",
+        chunks, seconds, remaining.size(), Math.round(remainingSeconds())));
+  }
+
+  private double estimate(TableChunk chunk) {
+    return chunkEstimates.get(chunk.getTable().name);
+  }
+
+  private synchronized double remainingSeconds() {
+    return remaining.stream().mapToDouble(this::estimate).sum();
+  }
+}
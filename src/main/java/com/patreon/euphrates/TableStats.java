@@ -0,0 +1,54 @@
+package com.patreon.euphrates;
+
+import java.util.concurrent.atomic.LongAdder;
+
+// What copying one table took during this run, added to from every stage as it goes.
+public class TableStats {
+
+  LongAdder rows = new LongAdder();
+  LongAdder rawBytes = new LongAdder();
+  LongAdder compressedBytes = new LongAdder();
+  // time spent extracting, which includes encoding when it runs on the extracting thread
+  LongAdder extractNanos = new LongAdder();
+  LongAdder encodeNanos = new LongAdder();
+  LongAdder uploadNanos = new LongAdder();
+  LongAdder copyNanos = new LongAdder();
+  LongAdder copies = new LongAdder();
+
+  public void addExtract(long rowCount, long rawByteCount, long nanos) {
+    rows.add(rowCount);
+    rawBytes.add(rawByteCount);
+    extractNanos.add(nanos);
+  }
+
+  public void addEncode(long compressedByteCount, long nanos) {
+    compressedBytes.add(compressedByteCount);
+    encodeNanos.add(nanos);
+  }
+
+  public void addUpload(long nanos) {
+    uploadNanos.add(nanos);
+  }
+
+  public void addCopy(long nanos) {
+    copyNanos.add(nanos);
+    copies.increment();
+  }
+
+  // only tables extracted this run have timings worth keeping
+  public boolean wasExtracted() {
+    return extractNanos.sum() != 0;
+  }
+
+  public TableEstimate toEstimate() {
+    return new TableEstimate(
+      rows.sum(),
+      rawBytes.sum(),
+      compressedBytes.sum(),
+      extractNanos.sum() / 1e9,
+      encodeNanos.sum() / 1e9,
+      uploadNanos.sum() / 1e9,
+      copyNanos.sum() / 1e9,
+      copies.sum());
+  }
+}
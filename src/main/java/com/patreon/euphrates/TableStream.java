@@ -0,0 +1,132 @@
+package com.patreon.euphrates;
+
+import javafixes.concurrency.ReusableCountLatch;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.LogManager;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Collects rows of the tables produced by the extractions of one worker into segments and hands
+// them to the S3Writer, regardless of whether they came from mysqldump or straight from jdbc.
+// Segments are encoded inline, or by an EncoderPool when encoder threads are configured. The
+// segments of each table are counted until they are copied, so the worker can go on extracting
+// while its last tables are still being copied.
+public class TableStream implements RowSink {
+
+  private static final Logger LOG = LogManager.getLogger(TableStream.class);
+  private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+  Replicator replicator;
+  // counts the segments of the current table until they are copied
+  volatile ReusableCountLatch tableFinished = null;
+  // tables started since takeStarted was last called, and every table not yet flushed
+  Map<Config.Table, ReusableCountLatch> started = new IdentityHashMap<>();
+  List<ReusableCountLatch> unflushed = new ArrayList<>();
+  Config.Table table = null;
+  SegmentEncoder encoder = null;
+  EncoderPool encoderPool = null;
+  int rowIndex = 0;
+  long startTime = 0;
+  long startRowIndex = 0;
+  long startAllocatedBytes = 0;
+  long startNanos = 0;
+  long rawBytes = 0;
+
+  public TableStream(Replicator replicator) {
+    this.replicator = replicator;
+    int encoderThreads = replicator.getConfig().s3.encoderThreads;
+    if (encoderThreads > 0) {
+      encoderPool = new EncoderPool(replicator, () -> tableFinished, encoderThreads);
+    } else {
+      encoder = new SegmentEncoder(replicator, () -> tableFinished);
+    }
+  }
+
+  public Config.Table getTable() {
+    return table;
+  }
+
+  @Override
+  public void start(Config.Table table) {
+    this.table = table;
+    // encoders only see rows of this table until end returns, so they all take this latch
+    tableFinished = new ReusableCountLatch();
+    started.put(table, tableFinished);
+    unflushed.add(tableFinished);
+    replicator.getS3Writer().openStream(table);
+    this.startTime = System.currentTimeMillis() / 1000l;
+    this.startRowIndex = rowIndex;
+    this.startAllocatedBytes = allocatedBytes();
+    this.startNanos = System.nanoTime();
+    this.rawBytes = 0;
+  }
+
+  @Override
+  public void add(Row row) {
+    if (encoderPool != null) {
+      encoderPool.add(table, row);
+    } else {
+      encoder.add(table, row);
+    }
+    rowIndex++;
+    rawBytes += row.textSize();
+  }
+
+  @Override
+  public void end() {
+    if (encoderPool != null) {
+      encoderPool.endTable();
+    } else {
+      encoder.finish();
+    }
+    replicator.getS3Writer().closeStream(table);
+    long secondsTook = System.currentTimeMillis() / 1000l - startTime;
+    long tableRows = rowIndex - startRowIndex;
+    long allocated = allocatedBytes() - startAllocatedBytes;
+    LOG.info(
+      String.format(
+        "extracted %s rows of %s in %s seconds, allocating %s bytes per row",
+        tableRows,
+        table.name,
+        secondsTook,
+        tableRows == 0 ? 0 : allocated / tableRows));
+    replicator.getRedshift().recordTableSize(table.name, secondsTook);
+    replicator.getRedshift().getStats(table.name).addExtract(tableRows, rawBytes, System.nanoTime() - startNanos);
+    table = null;
+  }
+
+  // the latch of each table started since the last call, which is zero once its segments are copied
+  public Map<Config.Table, ReusableCountLatch> takeStarted() {
+    Map<Config.Table, ReusableCountLatch> taken = started;
+    started = new IdentityHashMap<>();
+    return taken;
+  }
+
+  // blocks until every segment handed off by this stream has been copied into redshift, and
+  // stops its encoders
+  @Override
+  public void flush() {
+    if (encoderPool != null) encoderPool.shutdown();
+    try {
+      for (ReusableCountLatch latch : unflushed) {
+        latch.waitTillZero();
+      }
+      unflushed.clear();
+    } catch (InterruptedException e) {
+      // do nothing
+      LOG.error(String.format("interruptted! %s", e));
+    }
+  }
+
+  private long allocatedBytes() {
+    if (THREADS instanceof com.sun.management.ThreadMXBean) {
+      return ((com.sun.management.ThreadMXBean) THREADS).getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+    return 0;
+  }
+}
@@ -0,0 +1,56 @@
+package com.patreon.euphrates;
+
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.LogManager;
+
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.LongAdder;
+
+// Adapts the number of upload threads to the throughput s3 gives. While uploads are queueing,
+// it keeps moving the thread count the same way as long as throughput holds up, and turns back
+// when the last move made it drop. Without a queue the threads aren't what limits the uploads,
+// so it leaves them alone.
+class UploadTuner implements Runnable {
+
+  private static final Logger LOG = LogManager.getLogger(UploadTuner.class);
+  // a drop smaller than this is taken as noise
+  private static final double TOLERANCE = 0.05;
+
+  ThreadPoolExecutor uploader;
+  int minThreads;
+  int maxThreads;
+  int step = 1;
+  double lastThroughput = 0;
+  long lastNanos = System.nanoTime();
+  LongAdder uploadedBytes = new LongAdder();
+
+  UploadTuner(ThreadPoolExecutor uploader, int minThreads, int maxThreads) {
+    this.uploader = uploader;
+    this.minThreads = minThreads;
+    this.maxThreads = maxThreads;
+  }
+
+  void addUploaded(long bytes) {
+    uploadedBytes.add(bytes);
+  }
+
+  public void run() {
+    long now = System.nanoTime();
+    double throughput = uploadedBytes.sumThenReset() / ((now - lastNanos) / 1e9);
+    lastNanos = now;
+    if (!uploader.getQueue().isEmpty()) {
+      if (throughput < lastThroughput * (1 - TOLERANCE)) step = -step;
+      int threads = uploader.getCorePoolSize() + step;
+      // bounces off the limits, so it doesn't get stuck at one
+      if (threads < minThreads || threads > maxThreads) {
+        step = -step;
+        threads = Math.max(minThreads, Math.min(maxThreads, uploader.getCorePoolSize() + step));
+      }
+      if (threads != uploader.getCorePoolSize()) {
+        LOG.debug(String.format("%s upload threads at %.0f bytes/s", threads, throughput));
+        uploader.setCorePoolSize(threads);
+      }
+    }
+    lastThroughput = throughput;
+  }
+}
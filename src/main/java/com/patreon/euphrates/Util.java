@@ -1,11 +1,32 @@
 package com.patreon.euphrates;
 
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
 public class Util {
+
+  public static final String FORMAT_PREFIX = "format/";
+
   public static String tempTable(Config.Table table) {
     return String.format("_%s_new", table.name);
   }
 
   public static String formatKey(Config.Table table) {
-    return String.format("format/%s", table.name);
+    return FORMAT_PREFIX + table.name;
+  }
+
+  // what s3 gives as the etag of an object put in one part
+  public static String md5Hex(String text) {
+    try {
+      byte[] digest = MessageDigest.getInstance("MD5").digest(text.getBytes(StandardCharsets.UTF_8));
+      StringBuilder hex = new StringBuilder();
+      for (byte b : digest) {
+        hex.append(String.format("%02x", b));
+      }
+      return hex.toString();
+    } catch (NoSuchAlgorithmException e) {
+      throw new RuntimeException(e);
+    }
   }
 }
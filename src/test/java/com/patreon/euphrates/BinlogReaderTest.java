@@ -0,0 +1,103 @@
+package com.patreon.euphrates;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Runs against the mysql server in EUPHRATES_TEST_MYSQL, given as host:port:user:password:database,
+// which needs row based binary logging and a user allowed to replicate. Does nothing without it.
+public class BinlogReaderTest extends TestCase {
+
+  public BinlogReaderTest(String testName) {
+    super(testName);
+  }
+
+  public static Test suite() {
+    return new TestSuite(BinlogReaderTest.class);
+  }
+
+  public void testBatchesKeepTheLastChangeOfEachRow() throws Exception {
+    String server = System.getenv("EUPHRATES_TEST_MYSQL");
+    if (server == null) return;
+    String[] parts = server.split(":");
+
+    Map<String, String> columns = new LinkedHashMap<>();
+    columns.put("id", "integer");
+    columns.put("name", "varchar(64)");
+    columns.put("created", "timestamp");
+    Config.Table table = new Config.Table("euphrates_binlog_test", "", columns, "id", null, null, null, null);
+    Config config =
+      new Config(
+        new Config.Mysql(parts[2], parts[3], parts[0], Integer.parseInt(parts[1]), parts[4], 2, null, null),
+        null,
+        Collections.singletonList(table),
+        null,
+        new Config.Cdc(null, 1, null),
+        null,
+        null);
+
+    Mysql mysql = new Mysql(config);
+    try (Connection connection = mysql.getConnection(); Statement statement = connection.createStatement()) {
+      statement.execute("drop table if exists euphrates_binlog_test");
+      statement.execute(
+        "create table euphrates_binlog_test (id int primary key, name varchar(64), extra int, created timestamp null)");
+    }
+
+    Map<String, List<String>> applied = new HashMap<>();
+    BinlogReader reader = new BinlogReader(config, mysql, (batch, position) -> {
+      synchronized (applied) {
+        for (Row row : batch.getRows(table)) {
+          List<String> values = new ArrayList<>();
+          for (int i = 0; i != row.size(); i++) {
+            values.add(row.get(i));
+          }
+          applied.put(values.get(0), values);
+        }
+        applied.notifyAll();
+      }
+    });
+    BinlogPosition start = mysql.masterStatus();
+    Thread readerThread = new Thread(() -> {
+      try {
+        reader.run(start);
+      } catch (Exception e) {
+        // surfaces as missing rows below
+      }
+    });
+    readerThread.start();
+
+    try (Connection connection = mysql.getConnection(); Statement statement = connection.createStatement()) {
+      statement.execute(
+        "insert into euphrates_binlog_test values (1, 'one', 0, '2019-01-02 03:04:05'), (2, 'two', 0, null), (3, 'three', 0, null)");
+      statement.execute("update euphrates_binlog_test set name = 'uno' where id = 1");
+      statement.execute("delete from euphrates_binlog_test where id = 2");
+      statement.execute("update euphrates_binlog_test set id = 4 where id = 3");
+    }
+
+    long deadline = System.currentTimeMillis() + 30_000;
+    synchronized (applied) {
+      while (applied.size() < 4 && System.currentTimeMillis() < deadline) {
+        applied.wait(1000);
+      }
+    }
+    reader.stop();
+    readerThread.join();
+
+    assertEquals(4, applied.size());
+    assertEquals(Arrays.asList("1", "uno", "2019-01-02 03:04:05", "0"), applied.get("1"));
+    assertEquals("1", applied.get("2").get(3));
+    assertEquals("1", applied.get("3").get(3));
+    assertEquals(Arrays.asList("4", "three", null, "0"), applied.get("4"));
+    mysql.shutdown();
+  }
+}
@@ -0,0 +1,62 @@
+package com.patreon.euphrates;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.BitSet;
+
+public class BinlogValuesTest extends TestCase {
+
+  public BinlogValuesTest(String testName) {
+    super(testName);
+  }
+
+  public static Test suite() {
+    return new TestSuite(BinlogValuesTest.class);
+  }
+
+  private SourceColumn column(String dataType, String columnType) {
+    return new SourceColumn("c", 0, dataType, columnType);
+  }
+
+  public void testUnsignedIntegers() throws Exception {
+    assertEquals("255", BinlogValues.format(column("tinyint", "tinyint(3) unsigned"), -1));
+    assertEquals("-1", BinlogValues.format(column("tinyint", "tinyint(4)"), -1));
+    assertEquals("4294967295", BinlogValues.format(column("int", "int(10) unsigned"), -1));
+    assertEquals("18446744073709551615", BinlogValues.format(column("bigint", "bigint(20) unsigned"), -1L));
+    assertEquals("12", BinlogValues.format(column("bigint", "bigint(20)"), 12L));
+  }
+
+  public void testDatesAndTimes() throws Exception {
+    assertEquals("2019-01-02", BinlogValues.format(column("date", "date"), 1546387200000000L));
+    assertEquals("2019-01-02 03:04:05", BinlogValues.format(column("datetime", "datetime"), 1546398245000000L));
+    assertEquals("2019-01-02 03:04:05.250", BinlogValues.format(column("timestamp", "timestamp(3)"), 1546398245250000L));
+    assertEquals("2019-01-02 03:04:05.000001", BinlogValues.format(column("datetime", "datetime(6)"), 1546398245000001L));
+    assertEquals("1969-12-31 23:59:59.500000", BinlogValues.format(column("datetime", "datetime(6)"), -500000L));
+    assertEquals("0000-00-00 00:00:00", BinlogValues.format(column("datetime", "datetime"), Long.MIN_VALUE));
+    assertEquals("26:00:01", BinlogValues.format(column("time", "time"), 93601000000L));
+    assertEquals("-01:00:00.5", BinlogValues.format(column("time", "time(1)"), -3600500000L));
+  }
+
+  public void testEnumsAndSets() throws Exception {
+    SourceColumn enumColumn = column("enum", "enum('a','it''s','c,d')");
+    assertEquals(Arrays.asList("a", "it's", "c,d"), enumColumn.getLabels());
+    assertEquals("it's", BinlogValues.format(enumColumn, 2));
+    assertEquals("", BinlogValues.format(enumColumn, 0));
+    assertEquals("x,z", BinlogValues.format(column("set", "set('x','y','z')"), 5L));
+  }
+
+  public void testOtherValues() throws Exception {
+    assertNull(BinlogValues.format(column("varchar", "varchar(10)"), null));
+    assertEquals("café", BinlogValues.format(column("varchar", "varchar(10)"), "café".getBytes(StandardCharsets.UTF_8)));
+    assertEquals("0.00001", BinlogValues.format(column("decimal", "decimal(10,5)"), new BigDecimal("1E-5")));
+    BitSet bits = new BitSet();
+    bits.set(0);
+    bits.set(3);
+    assertEquals("9", BinlogValues.format(column("bit", "bit(4)"), bits));
+  }
+}
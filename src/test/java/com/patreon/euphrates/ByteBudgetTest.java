@@ -0,0 +1,38 @@
+package com.patreon.euphrates;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+public class ByteBudgetTest extends TestCase {
+
+  public ByteBudgetTest(String testName) {
+    super(testName);
+  }
+
+  public static Test suite() {
+    return new TestSuite(ByteBudgetTest.class);
+  }
+
+  public void testBudgetLetsASingleOversizedHolderThrough() throws Exception {
+    ByteBudget budget = new ByteBudget(100);
+    budget.acquire(500);
+    assertEquals(500, budget.getUsed());
+    budget.release(500);
+    budget.acquire(60);
+    Thread waiting = new Thread(() -> {
+      try {
+        budget.acquire(60);
+      } catch (InterruptedException e) {
+        // do nothing
+      }
+    });
+    waiting.start();
+    waiting.join(200);
+    assertTrue(waiting.isAlive());
+    budget.release(60);
+    waiting.join(5000);
+    assertFalse(waiting.isAlive());
+    assertEquals(60, budget.getUsed());
+  }
+}
@@ -0,0 +1,48 @@
+package com.patreon.euphrates;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+public class CopyBatchPolicyTest extends TestCase {
+
+  public CopyBatchPolicyTest(String testName) {
+    super(testName);
+  }
+
+  public static Test suite() {
+    return new TestSuite(CopyBatchPolicyTest.class);
+  }
+
+  private CopyBatchPolicy policy(int slices) {
+    return new CopyBatchPolicy(
+      new Config.Redshift(null, null, null, 5439, null, 4, null, 10, 80, 0.25, 2.0, 5000L, null), slices);
+  }
+
+  public void testGrowsWhileCopiesAreMostlyOverhead() throws Exception {
+    CopyBatchPolicy policy = policy(4);
+    assertEquals(12, policy.manifestFiles("t", 0));
+    // half of it is the guessed overhead
+    policy.record("t", 12, 4);
+    assertEquals(24, policy.manifestFiles("t", 0));
+    // twice the files took hardly longer, so most of it is overhead
+    policy.record("t", 24, 4.5);
+    assertEquals(48, policy.manifestFiles("t", 0));
+  }
+
+  public void testShrinksBackWhenCopiesAreMostlyLoading() throws Exception {
+    CopyBatchPolicy policy = policy(4);
+    policy.record("t", 12, 4);
+    assertEquals(24, policy.manifestFiles("t", 0));
+    // twice the files took over six times as long, so it is nearly all loading
+    policy.record("t", 24, 26);
+    assertEquals(12, policy.manifestFiles("t", 0));
+  }
+
+  public void testDeepQueuesAreDrainedInWholeRounds() throws Exception {
+    CopyBatchPolicy policy = policy(4);
+    assertEquals(12, policy.manifestFiles("t", 23));
+    assertEquals(24, policy.manifestFiles("t", 26));
+    assertEquals(80, policy.manifestFiles("t", 500));
+  }
+}
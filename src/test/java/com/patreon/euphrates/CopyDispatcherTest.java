@@ -0,0 +1,62 @@
+package com.patreon.euphrates;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class CopyDispatcherTest extends TestCase {
+
+  public CopyDispatcherTest(String testName) {
+    super(testName);
+  }
+
+  public static Test suite() {
+    return new TestSuite(CopyDispatcherTest.class);
+  }
+
+  public void testTakesWholeRoundsAndLeavesTheRest() throws Exception {
+    CopyDispatcher<Integer> dispatcher = new CopyDispatcher<>(Arrays.asList("a", "b"), 100);
+    for (int i = 0; i != 7; i++) {
+      dispatcher.put("a", i);
+    }
+    assertEquals("a", dispatcher.next());
+    List<Integer> jobs = dispatcher.take("a", 3, 10, 0);
+    assertEquals(Arrays.asList(0, 1, 2, 3, 4, 5), jobs);
+
+    // a claimed table isn't handed out twice, even as segments arrive
+    dispatcher.put("b", 0);
+    assertEquals("b", dispatcher.next());
+    dispatcher.release("a");
+    assertEquals("a", dispatcher.next());
+    assertEquals(Arrays.asList(6), dispatcher.take("a", 3, 10, 0));
+    assertEquals(1, dispatcher.getPendingCount());
+  }
+
+  public void testFullQueueWaitsForACopy() throws Exception {
+    CopyDispatcher<Integer> dispatcher = new CopyDispatcher<>(Arrays.asList("a"), 2);
+    dispatcher.put("a", 0);
+    dispatcher.put("a", 1);
+    CountDownLatch added = new CountDownLatch(1);
+    Thread producer = new Thread(() -> {
+      try {
+        dispatcher.put("a", 2);
+        added.countDown();
+      } catch (InterruptedException e) {
+        // do nothing
+      }
+    });
+    producer.start();
+    assertFalse(added.await(200, TimeUnit.MILLISECONDS));
+
+    assertEquals("a", dispatcher.next());
+    assertEquals(Arrays.asList(0, 1), dispatcher.take("a", 4, 10, 1000));
+    assertTrue(added.await(5, TimeUnit.SECONDS));
+    dispatcher.release("a");
+    assertEquals("a", dispatcher.next());
+  }
+}
@@ -0,0 +1,57 @@
+package com.patreon.euphrates;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class DelimitedRowWriterTest extends TestCase {
+
+  public DelimitedRowWriterTest(String testName) {
+    super(testName);
+  }
+
+  public static Test suite() {
+    return new TestSuite(DelimitedRowWriterTest.class);
+  }
+
+  private String write(List<String> values) throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    RowWriter writer = new DelimitedRowWriter(out);
+    Row row = new Row(values.size());
+    for (int i = 0; i != values.size(); i++) {
+      row.set(i, values.get(i));
+    }
+    writer.write(row);
+    writer.close();
+    return new String(out.toByteArray(), StandardCharsets.UTF_8);
+  }
+
+  public void testNullsAndEmptyValues() throws Exception {
+    assertEquals("a|\\N||b\n", write(Arrays.asList("a", null, "", "b")));
+  }
+
+  public void testEscapesDelimiterBackslashAndLineBreaks() throws Exception {
+    assertEquals(
+      "x\\|y|\\\\N|line\\\none\\\r|tab\tstays\n",
+      write(Arrays.asList("x|y", "\\N", "line\none\r", "tab\tstays")));
+  }
+
+  public void testWritesUtf8() throws Exception {
+    assertEquals("café|€|😀|?\n", write(Arrays.asList("café", "€", "😀", "\ud83d")));
+  }
+
+  public void testValuesLongerThanTheBuffer() throws Exception {
+    char[] value = new char[100_000];
+    Arrays.fill(value, '|');
+    String written = write(Arrays.asList(new String(value)));
+    assertEquals(200_001, written.length());
+    assertTrue(written.startsWith("\\|\\|"));
+  }
+}
@@ -0,0 +1,81 @@
+package com.patreon.euphrates;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Runs against the mysql server in EUPHRATES_TEST_MYSQL, given as host:port:user:password:database.
+// Does nothing without it.
+public class JdbcExtractorTest extends TestCase {
+
+  public JdbcExtractorTest(String testName) {
+    super(testName);
+  }
+
+  public static Test suite() {
+    return new TestSuite(JdbcExtractorTest.class);
+  }
+
+  public void testDatesComeOutAsMysqldumpPrintsThem() throws Exception {
+    String server = System.getenv("EUPHRATES_TEST_MYSQL");
+    if (server == null) return;
+    String[] parts = server.split(":");
+
+    Map<String, String> columns = new LinkedHashMap<>();
+    columns.put("id", "integer");
+    columns.put("day", "date");
+    columns.put("moment", "timestamp");
+    Config.Table table = new Config.Table("euphrates_jdbc_test", "", columns, "id", null, null, null, null);
+    Config config =
+      new Config(
+        new Config.Mysql(parts[2], parts[3], parts[0], Integer.parseInt(parts[1]), parts[4], 1, "jdbc", null),
+        null,
+        Collections.singletonList(table),
+        null,
+        null,
+        null,
+        null);
+
+    Mysql mysql = new Mysql(config);
+    List<List<String>> rows = new ArrayList<>();
+    try (Connection connection = mysql.getConnection()) {
+      try (Statement statement = connection.createStatement()) {
+        // legacy tables still hold zero dates, which strict modes no longer let in
+        statement.execute("set session sql_mode = ''");
+        statement.execute("drop table if exists euphrates_jdbc_test");
+        statement.execute("create table euphrates_jdbc_test (id int primary key, day date, moment datetime)");
+        statement.execute(
+          "insert into euphrates_jdbc_test values (1, '2019-01-02', '2019-01-02 03:04:05'), (2, '0000-00-00', '0000-00-00 00:00:00')");
+      }
+      new JdbcExtractor(null, new RowSink() {
+        public void start(Config.Table table) {}
+
+        public void add(Row row) {
+          List<String> values = new ArrayList<>();
+          for (int i = 0; i != row.size(); i++) {
+            values.add(row.get(i));
+          }
+          rows.add(values);
+        }
+
+        public void end() {}
+
+        public void flush() {}
+      }).extract(connection, Collections.singletonList(TableChunk.whole(table)));
+    } finally {
+      mysql.shutdown();
+    }
+
+    assertEquals(Arrays.asList("1", "2019-01-02", "2019-01-02 03:04:05"), rows.get(0));
+    assertEquals(Arrays.asList("2", "0000-00-00", "0000-00-00 00:00:00"), rows.get(1));
+  }
+}
@@ -0,0 +1,79 @@
+package com.patreon.euphrates;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class JsonRowWriterTest extends TestCase {
+
+  public JsonRowWriterTest(String testName) {
+    super(testName);
+  }
+
+  public static Test suite() {
+    return new TestSuite(JsonRowWriterTest.class);
+  }
+
+  // what RowEnqueuer used to write for every row
+  private byte[] mapperBytes(List<List<String>> rows) throws Exception {
+    ObjectMapper mapper = new ObjectMapper();
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    Writer writer = new OutputStreamWriter(out, "UTF-8");
+    for (List<String> row : rows) {
+      writer.write(mapper.writeValueAsString(row));
+      writer.write("\n");
+    }
+    writer.close();
+    return out.toByteArray();
+  }
+
+  private byte[] rowWriterBytes(List<List<String>> rows) throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    JsonRowWriter writer = new JsonRowWriter(out);
+    for (List<String> values : rows) {
+      Row row = new Row(values.size());
+      for (int i = 0; i != values.size(); i++) {
+        row.set(i, values.get(i));
+      }
+      writer.write(row);
+    }
+    writer.close();
+    return out.toByteArray();
+  }
+
+  public void testEscapesLikeObjectMapper() throws Exception {
+    List<List<String>> rows = Arrays.asList(
+      Arrays.asList("plain", null, "", "quote \" and \\ backslash"),
+      Arrays.asList("\t\n\r\b\f\u0000\u001f\u007f", "café", "€￿", "😀"),
+      Arrays.asList("lone \ud83d surrogate", "\ude00", null, "/"));
+    assertArrayEquals(mapperBytes(rows), rowWriterBytes(rows));
+  }
+
+  public void testRandomRowsMatchObjectMapper() throws Exception {
+    Random random = new Random(42);
+    List<List<String>> rows = new java.util.ArrayList<>();
+    for (int r = 0; r != 2000; r++) {
+      String[] values = new String[5];
+      for (int i = 0; i != values.length; i++) {
+        if (random.nextInt(10) == 0) continue;
+        char[] chars = new char[random.nextInt(200)];
+        for (int c = 0; c != chars.length; c++) {
+          chars[c] = (char) (random.nextBoolean() ? random.nextInt(0x80) : random.nextInt(0x10000));
+        }
+        values[i] = new String(chars);
+      }
+      rows.add(Arrays.asList(values));
+    }
+    assertArrayEquals(mapperBytes(rows), rowWriterBytes(rows));
+  }
+}
@@ -0,0 +1,36 @@
+package com.patreon.euphrates;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+public class MetricsTest extends TestCase {
+
+  public MetricsTest(String testName) {
+    super(testName);
+  }
+
+  public static Test suite() {
+    return new TestSuite(MetricsTest.class);
+  }
+
+  public void testHistogramBucketsAreCumulative() throws Exception {
+    Metrics.Histogram histogram = Metrics.histogram("euphrates_test_seconds", "test");
+    histogram.observeNanos(10_000_000L);
+    histogram.observeNanos(3_000_000_000L);
+    histogram.observeNanos(1_000_000_000_000L);
+    String text = Metrics.prometheus();
+    assertTrue(text.contains("# TYPE euphrates_test_seconds histogram\n"));
+    assertTrue(text.contains("euphrates_test_seconds_bucket{le=\"0.05\"} 1\n"));
+    assertTrue(text.contains("euphrates_test_seconds_bucket{le=\"5.0\"} 2\n"));
+    assertTrue(text.contains("euphrates_test_seconds_bucket{le=\"600.0\"} 2\n"));
+    assertTrue(text.contains("euphrates_test_seconds_bucket{le=\"+Inf\"} 3\n"));
+    assertTrue(text.contains("euphrates_test_seconds_count 3\n"));
+  }
+
+  public void testCountersAreSharedByName() throws Exception {
+    Metrics.counter("euphrates_test_total", "test").add(2);
+    Metrics.counter("euphrates_test_total", "test").increment();
+    assertTrue(Metrics.prometheus().contains("euphrates_test_total 3\n"));
+  }
+}
@@ -0,0 +1,31 @@
+package com.patreon.euphrates;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+public class RedshiftTest extends TestCase {
+
+  public RedshiftTest(String testName) {
+    super(testName);
+  }
+
+  public static Test suite() {
+    return new TestSuite(RedshiftTest.class);
+  }
+
+  public void testDropperKeepsVersionsPublishedSince() throws Exception {
+    // run 100 published, then run 101 started and published before the dropper of run 100 ran
+    assertEquals("users_v100", Redshift.version("users", 100));
+    assertEquals(
+      Collections.singletonList("users_v99"),
+      Redshift.olderVersions(Arrays.asList("users_v101", "users_v100", "users_v99"), 100));
+    // run 101 started but hasn't published, its version doesn't exist yet
+    assertEquals(
+      Collections.singletonList("users_v99"),
+      Redshift.olderVersions(Arrays.asList("users_v100", "users_v99"), 100));
+  }
+}
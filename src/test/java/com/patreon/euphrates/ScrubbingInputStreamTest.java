@@ -6,6 +6,13 @@ import junit.framework.TestSuite;
 import org.apache.commons.io.IOUtils;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.Random;
 
 import static org.junit.Assert.*;
 
@@ -56,4 +63,64 @@ public class ScrubbingInputStreamTest extends TestCase {
     assertEquals(1_572_864, output.length);
   }
 
+  // the unicode block based filter the lookup table was built from
+  private static boolean referencePrintable(char c) {
+    Character.UnicodeBlock block = Character.UnicodeBlock.of(c);
+    return (!Character.isISOControl(c) || c == '\n' || c == '\t' || c == '\r') &&
+             block != null &&
+             block != Character.UnicodeBlock.SPECIALS;
+  }
+
+  // decodes, filters and encodes a single block, the way every block used to be scrubbed
+  private static byte[] referenceScrub(byte[] in) throws Exception {
+    CharsetDecoder decoder = Charset.forName("UTF-8").newDecoder();
+    decoder.onMalformedInput(CodingErrorAction.IGNORE);
+    CharBuffer chars = CharBuffer.allocate(in.length);
+    decoder.decode(ByteBuffer.wrap(in), chars, true);
+    decoder.flush(chars);
+    chars.flip();
+    StringBuilder good = new StringBuilder();
+    while (chars.hasRemaining()) {
+      char c = chars.get();
+      if (referencePrintable(c)) good.append(c);
+    }
+    return good.toString().getBytes("UTF-8");
+  }
+
+  public void testLookupMatchesUnicodeBlocks() throws Exception {
+    for (int c = Character.MIN_VALUE; c <= Character.MAX_VALUE; c++) {
+      assertEquals(referencePrintable((char) c), ScrubbingInputStream.isPrintableChar((char) c));
+    }
+  }
+
+  public void testWellFormedBlocksMatchDecoding() throws Exception {
+    Random random = new Random(7);
+    for (int round = 0; round != 200; round++) {
+      ByteArrayOutputStream text = new ByteArrayOutputStream();
+      while (text.size() < 8000) {
+        int pick = random.nextInt(10);
+        int codePoint;
+        if (pick < 5) codePoint = random.nextInt(0x80);
+        else if (pick < 8) codePoint = random.nextInt(0x10000);
+        else if (pick < 9) codePoint = 0xfff0 + random.nextInt(0x10);
+        else codePoint = 0x10000 + random.nextInt(0x100000);
+        if (codePoint >= 0xd800 && codePoint <= 0xdfff) continue;
+        text.write(new String(Character.toChars(codePoint)).getBytes("UTF-8"));
+      }
+      byte[] in = text.toByteArray();
+      ScrubbingInputStream sis = new ScrubbingInputStream(new ByteArrayInputStream(in));
+      assertArrayEquals(referenceScrub(in), IOUtils.toByteArray(sis));
+    }
+  }
+
+  public void testMalformedBlocksMatchDecoding() throws Exception {
+    Random random = new Random(11);
+    for (int round = 0; round != 200; round++) {
+      byte[] in = new byte[random.nextInt(8000)];
+      random.nextBytes(in);
+      ScrubbingInputStream sis = new ScrubbingInputStream(new ByteArrayInputStream(in));
+      assertArrayEquals(referenceScrub(in), IOUtils.toByteArray(sis));
+    }
+  }
+
 }
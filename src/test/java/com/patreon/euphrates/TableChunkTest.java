@@ -0,0 +1,54 @@
+package com.patreon.euphrates;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.util.Collections;
+import java.util.List;
+
+public class TableChunkTest extends TestCase {
+
+  public TableChunkTest(String testName) {
+    super(testName);
+  }
+
+  public static Test suite() {
+    return new TestSuite(TableChunkTest.class);
+  }
+
+  private Config.Table table(int chunks) {
+    return new Config.Table("users", "", Collections.emptyMap(), "id", chunks, "updated_at", null, null);
+  }
+
+  public void testSplitCoversWholeRange() throws Exception {
+    List<TableChunk> chunks = TableChunk.split(table(4), 1, 100);
+    assertEquals(4, chunks.size());
+    assertEquals("id < 26", chunks.get(0).where());
+    assertEquals("id >= 26 and id < 51", chunks.get(1).where());
+    assertEquals("id >= 51 and id < 76", chunks.get(2).where());
+    assertEquals("id >= 76", chunks.get(3).where());
+  }
+
+  public void testSplitNeverExceedsKeySpan() throws Exception {
+    List<TableChunk> chunks = TableChunk.split(table(8), 10, 12);
+    assertEquals(3, chunks.size());
+    assertEquals("id < 11", chunks.get(0).where());
+    assertEquals("id >= 11 and id < 12", chunks.get(1).where());
+    assertEquals("id >= 12", chunks.get(2).where());
+  }
+
+  public void testSingleKeyIsWholeTable() throws Exception {
+    List<TableChunk> chunks = TableChunk.split(table(4), 5, 5);
+    assertEquals(1, chunks.size());
+    assertTrue(chunks.get(0).isWholeTable());
+    assertNull(chunks.get(0).where());
+  }
+
+  public void testChangedSinceFiltersOnWatermark() throws Exception {
+    TableChunk chunk = TableChunk.changedSince(table(1), "2019-01-02 03:04:05");
+    assertFalse(chunk.isWholeTable());
+    assertEquals("updated_at >= '2019-01-02 03:04:05'", chunk.where());
+    assertEquals("updated_at >= 'it''s'", TableChunk.changedSince(table(1), "it's").where());
+  }
+}
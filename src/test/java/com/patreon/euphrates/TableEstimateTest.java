@@ -0,0 +1,35 @@
+package com.patreon.euphrates;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+public class TableEstimateTest extends TestCase {
+
+  public TableEstimateTest(String testName) {
+    super(testName);
+  }
+
+  public static Test suite() {
+    return new TestSuite(TableEstimateTest.class);
+  }
+
+  private TableEstimate run(double seconds) {
+    return new TableEstimate(100, 1000, 200, seconds, seconds, seconds, seconds * 2, 2);
+  }
+
+  public void testNextRunIsWeightedByAlpha() throws Exception {
+    TableEstimate estimate = run(100).next(run(200));
+    assertEquals(130.0, estimate.getExtractSeconds(), 1e-9);
+    assertEquals(130.0, estimate.getCopySecondsEach(), 1e-9);
+    assertEquals(200.0, estimate.getCompressedBytes(), 1e-9);
+  }
+
+  public void testOldRunsFadeOut() throws Exception {
+    TableEstimate estimate = run(1000);
+    for (int i = 0; i != 20; i++) {
+      estimate = estimate.next(run(10));
+    }
+    assertEquals(10.0, estimate.getExtractSeconds(), 1.0);
+  }
+}
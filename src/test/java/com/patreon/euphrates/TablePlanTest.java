@@ -0,0 +1,41 @@
+package com.patreon.euphrates;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.util.Collections;
+import java.util.List;
+
+public class TablePlanTest extends TestCase {
+
+  public TablePlanTest(String testName) {
+    super(testName);
+  }
+
+  public static Test suite() {
+    return new TestSuite(TablePlanTest.class);
+  }
+
+  private Config.Table table() {
+    return new Config.Table("users", "", Collections.emptyMap(), "id", 4, "updated_at", null, null);
+  }
+
+  public void testPendingLeavesOutCommittedChunks() throws Exception {
+    List<TableChunk> chunks = TableChunk.split(table(), 1, 100);
+    TablePlan plan = new TablePlan(table(), "2019-01-01", null, chunks);
+    plan.done[plan.indexOf(chunks.get(1))] = true;
+    plan.done[plan.indexOf(chunks.get(3))] = true;
+    assertEquals(2, plan.pending().size());
+    assertEquals(chunks.get(0), plan.pending().get(0));
+    assertEquals(chunks.get(2), plan.pending().get(1));
+    assertFalse(plan.isIncremental());
+  }
+
+  public void testChangedSinceIsIncremental() throws Exception {
+    TablePlan plan =
+      new TablePlan(table(), "2019-01-02", null, Collections.singletonList(TableChunk.changedSince(table(), "2019-01-01")));
+    assertTrue(plan.isIncremental());
+    assertFalse(new TablePlan(table(), null, null, Collections.singletonList(TableChunk.whole(table()))).isIncremental());
+  }
+}
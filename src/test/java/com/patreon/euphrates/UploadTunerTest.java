@@ -0,0 +1,59 @@
+package com.patreon.euphrates;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+public class UploadTunerTest extends TestCase {
+
+  public UploadTunerTest(String testName) {
+    super(testName);
+  }
+
+  public static Test suite() {
+    return new TestSuite(UploadTunerTest.class);
+  }
+
+  // uploads a second's worth of the given throughput, then tunes
+  private void tune(UploadTuner tuner, long bytesPerSecond) {
+    tuner.lastNanos = System.nanoTime() - 1_000_000_000L;
+    tuner.addUploaded(bytesPerSecond);
+    tuner.run();
+  }
+
+  public void testClimbsWhileThroughputHoldsAndTurnsBackWhenItDrops() throws Exception {
+    ThreadPoolExecutor uploader =
+      new ThreadPoolExecutor(2, 4, 30L, TimeUnit.SECONDS, new LinkedBlockingQueue<>());
+    CountDownLatch release = new CountDownLatch(1);
+    try {
+      for (int i = 0; i != 10; i++) {
+        uploader.execute(() -> {
+          try {
+            release.await();
+          } catch (InterruptedException e) {
+            // do nothing
+          }
+        });
+      }
+      UploadTuner tuner = new UploadTuner(uploader, 1, 4);
+      tune(tuner, 1000);
+      assertEquals(3, uploader.getCorePoolSize());
+      tune(tuner, 1500);
+      assertEquals(4, uploader.getCorePoolSize());
+      // at the limit, so it heads back down
+      tune(tuner, 1600);
+      assertEquals(3, uploader.getCorePoolSize());
+      // that made it worse, so it goes back up
+      tune(tuner, 1000);
+      assertEquals(4, uploader.getCorePoolSize());
+    } finally {
+      release.countDown();
+      uploader.shutdownNow();
+    }
+  }
+}